@@ -87,6 +87,11 @@ object SimpleBenchmark {
 
             }
 
+            runExperiment("mmc-40-40-800-steps") {
+                // Same as above, but with customer processes defined as state machines instead of sequences
+                MMcQueue(c = 40, mu = 40, lambda = 800, useProcessSteps = true).run(1000)
+            }
+
             runExperiment("mmc-2-4-7") {
                 // Near-saturation, small c (deep queue stress)
                 // Fewer servers but very high utilization → long queues, lots of waiting/completions and more state pressure.
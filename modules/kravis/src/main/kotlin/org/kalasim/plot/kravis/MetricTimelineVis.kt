@@ -1,6 +1,7 @@
 package org.kalasim.plot.kravis
 
 import kravis.GGPlot
+import kravis.geomCol
 import kravis.geomStep
 import kravis.plot
 import org.kalasim.SimTime
@@ -8,6 +9,7 @@ import org.kalasim.TickTime
 import org.kalasim.asSimTime
 import org.kalasim.asTickTime
 import org.kalasim.monitors.MetricTimeline
+import org.kalasim.monitors.histogram
 
 fun <V : Number> MetricTimeline<V>.display(
     title: String = name,
@@ -37,4 +39,19 @@ fun <V : Number> MetricTimeline<V>.display(
         .geomStep()
         .title(title)
         .showOptional()
-}
\ No newline at end of file
+}
+
+/** Displays the exact time-weighted histogram of a timeline, see [MetricTimeline.histogram]. */
+fun <V : Number> MetricTimeline<V>.displayHistogram(
+    title: String = name,
+    binCount: Int = 10,
+): GGPlot {
+    val bins = histogram(binCount)
+
+    return bins.plot(x = { (lowerBound + upperBound) / 2 }, y = { fraction })
+        .xLabel("Value")
+        .yLabel("Fraction of time")
+        .geomCol()
+        .title(title)
+        .showOptional()
+}
@@ -36,6 +36,21 @@ fun <V : Number> MetricTimeline<V>.display(
             geomStep { x = "time"; y = "value" } + ggtitle(title)
 }
 
+/** Displays the exact time-weighted histogram of a timeline, see [MetricTimeline.histogram]. */
+fun <V : Number> MetricTimeline<V>.displayHistogram(
+    title: String = name,
+    binCount: Int = 10,
+): Plot {
+    val bins = histogram(binCount)
+
+    val data = mapOf(
+        "value" to bins.map { (it.lowerBound + it.upperBound) / 2 },
+        "fraction" to bins.map { it.fraction },
+    )
+
+    return letsPlot(data) + geomBar(stat = Stat.identity) { x = "value"; y = "fraction" } + ggtitle(title)
+}
+
 private fun DataFrame<*>.convertTick2Double(colName: String): DataFrame<*> {
 //    return add(colName) { colName<SimTime>().epochSeconds }
     return convert { colName<SimTime>() }.with { it.epochSeconds }
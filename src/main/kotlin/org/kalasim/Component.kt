@@ -12,7 +12,6 @@ import org.kalasim.analysis.ResourceEventType.*
 import org.kalasim.analysis.snapshot.ComponentSnapshot
 import org.kalasim.misc.*
 import org.kalasim.monitors.CategoryTimeline
-import org.koin.core.Koin
 import kotlin.math.abs
 import kotlin.math.absoluteValue
 import kotlin.math.max
@@ -193,6 +192,8 @@ class ComponentProperties {
 
     internal val stateChangeListeners = mutableListOf<ComponentStateChangeListener>()
 
+    internal val rescheduleListeners = mutableListOf<Component.RescheduleListener>()
+
 }
 
 
@@ -230,7 +231,7 @@ open class Component(
     priority: Priority = NORMAL,
     process: GeneratorFunRef? = null,
     envProvider: EnvProvider = DefaultProvider(),
-    val trackingConfig: ComponentTrackingConfig = envProvider.getEnv()._koin.getEnvDefaults().DefaultComponentConfig,
+    val trackingConfig: ComponentTrackingConfig = envProvider.getEnv().entityTrackingDefaults.DefaultComponentConfig,
 
     // to be re-enabled/reworked as part of https://github.com/holgerbrandl/kalasim/issues/11
 //    builder: SequenceScope<Component>.() -> Unit = {   }
@@ -252,39 +253,59 @@ open class Component(
 
     private var simProcess: SimProcess? = null
 
+    // allocated on first use to keep components which are never interrupted or observed lightweight
+    private var _cmpntPrps: ComponentProperties? = null
+
     @InternalKalasimApi
-    val cmpntPrps = ComponentProperties()
+    val cmpntPrps: ComponentProperties
+        get() = _cmpntPrps ?: ComponentProperties().also { _cmpntPrps = it }
 
     // TODO 0.6 get rid of this field (not needed because can be always retrieved from eventList if needed
     //  What are performance implications?
     var scheduledTime: SimTime? = null
         internal set
 
+    /** Slot of this component in the event queue of its environment, or -1 if not scheduled. */
+    internal var queueIndex: Int = -1
+
 
     fun interface ComponentStateChangeListener {
         fun stateChanged(component: Component)
     }
 
+    /** Observes the reschedules of a single component without subscribing to the event bus. */
+    internal fun interface RescheduleListener {
+        fun rescheduled(event: RescheduledEvent)
+    }
+
 
     /** Current lifecycle state of the component. See https://www.kalasim.org/component/#lifecycle for details. */
     var componentState: ComponentState = DATA
         internal set(value) {
             field = value
 
-            stateTimeline.addValue(value)
+            _stateTimeline?.addValue(value)
 
-            cmpntPrps.stateChangeListeners.forEach { it.stateChanged(this) }
+            _cmpntPrps?.stateChangeListeners?.forEach { it.stateChanged(this) }
         }
 
 
-    val stateTimeline = CategoryTimeline("status of ${this.name}", componentState, envProvider)
+    // only allocated upfront if component states are tracked
+    private var _stateTimeline: CategoryTimeline<ComponentState>? =
+        if(trackingConfig.trackComponentState) CategoryTimeline("status of ${this.name}", componentState, envProvider) else null
 
-    init {
-
-        with(trackingConfig) {
-            stateTimeline.enabled = trackComponentState
+    /**
+     * The lifecycle states of the component over time. If `trackComponentState` is disabled in the [trackingConfig],
+     * a disabled timeline is created on first access.
+     */
+    val stateTimeline: CategoryTimeline<ComponentState>
+        get() = _stateTimeline ?: CategoryTimeline("status of ${this.name}", componentState, envProvider).also {
+            it.enabled = false
+            _stateTimeline = it
         }
 
+    init {
+
         log(trackingConfig.logCreation) {
             EntityCreatedEvent(now, env.currentComponent, this)
         }
@@ -292,16 +313,19 @@ open class Component(
         val isCustomProcess = process != null && process.name != "process"
         val isNone = process != null && process.name == "none"
 
-        val (overriddenProcess, overriddenRepeated) =
-            if (!isCustomProcess) {
-                val f = overrideFlagsTL(javaClass as Class<out Component>)
-                f.overridesProcess to f.overridesRepeated
-            } else false to false
+        val overrides = if (!isCustomProcess) overrideFlagsTL(javaClass as Class<out Component>) else null
+
+        val overriddenProcess = overrides?.overridesProcess == true
+        val overriddenRepeated = overrides?.overridesRepeated == true
+        val overriddenStep = overrides?.overridesProcessStep == true
 
         if (!isCustomProcess) {
             require(!(overriddenProcess && overriddenRepeated)) {
                 "So either override process or override repeatedProcess but not both"
             }
+            require(!(overriddenStep && (overriddenProcess || overriddenRepeated))) {
+                "A state machine defined with processStep can not be combined with process or repeatedProcess"
+            }
         }
 
         val generatorFunRef: GeneratorFunRef? = when {
@@ -312,7 +336,7 @@ open class Component(
             else -> null
         }
 
-        this.simProcess = generatorFunRef?.ingestFunPointer()
+        this.simProcess = if (overriddenStep) StepProcess(this) else generatorFunRef?.ingestFunPointer()
 
         //  what's the point of scheduling it at `at`  without a process definition?
         //  --> main is one major reason, we need the engine to progress the time until a given point
@@ -338,6 +362,9 @@ open class Component(
 
     private var lastProcess: ProcessReference? = null
 
+    private val definesProcessSteps: Boolean
+        get() = overrideFlagsTL(javaClass).overridesProcessStep
+
     class ProcessReference(val generatorFunRef: GeneratorFunRef, vararg val arguments: Any)
 
     private fun GeneratorFunRef.ingestFunPointer(vararg processArgs: Any): SimProcess {
@@ -388,6 +415,22 @@ open class Component(
         TODO("Invalid state. Please file a bug report")
     }
 
+    /**
+     * Defines the process of the component as a state machine, which is an alternative to [process] for components
+     * which are created in large numbers. Instead of suspending, a step schedules the component with the
+     * non-suspending variants of [hold], [request], [wait] or [passivate], and returns the step to be executed once
+     * the component becomes current again. If a step does not schedule the component, the returned step is executed
+     * right away.
+     *
+     * The process starts with step `0` and ends with a negative step such as [PROCESS_END]. As the engine calls this
+     * function directly, the process neither allocates a coroutine per component nor continuations per suspension.
+     *
+     * @sample org.kalasim.dokka.processStepHowTo
+     */
+    open fun processStep(step: Int): Int {
+        TODO("Invalid state. Please file a bug report")
+    }
+
     internal fun processLoop() = sequence {
         while (true) {
             yieldAll(repeatedProcess())
@@ -862,19 +905,120 @@ open class Component(
         val requestedAt = now
 
         @Suppress("NAME_SHADOWING")
-        val resourceRequests: List<ResourceRequest> = when (capacityLimitMode) {
-            CapacityLimitMode.FAIL -> resourceRequests.firstOrNull { abs(it.quantity) > it.resource.capacity }?.let {
+        val resourceRequests = resourceRequests.limitedBy(capacityLimitMode)
+
+        yieldCurrent {
+            scheduleRequest(resourceRequests, description, oneOf, urgent, failAt, failDelay, failPriority)
+        }
+
+        if (honorBlock != null) {
+            // suspend{ ... }
+            val honoredAt = now
+
+            honorBlock(RequestScopeContext(if (oneOf) claims.toList().last().first else null, requestedAt))
+
+            val releasedAt = now
+
+            // salabim says: It is possible to check which resource has been claimed with `Component.claimers()`.
+            // note we could alternative also use the request-id to identify the claim
+            resourceRequests.filter { it.resource.claimers.contains(this@Component) }.forEach {
+                release(it)
+
+                if (it.resource.trackingConfig.trackActivities) {
+                    val rse =
+                        ResourceActivityEvent(
+                            requestedAt,
+                            honoredAt,
+                            releasedAt,
+                            this@Component,
+                            it.resource,
+                            description,
+                            it.quantity
+                        )
+                    (it.resource.activities as MutableList<ResourceActivityEvent>).add(rse)
+                    log(rse)
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Request from a resource or resources without suspending the process. This is intended for
+     * [state machine processes][processStep], which can check with [isClaiming] or [failed] in their next step if
+     * the request has been honored.
+     *
+     * For `request` contract see [user manual](https://www.kalasim.org/component/#request)
+     *
+     * @param resources Resources to be requested.
+     * @param quantity The quantity to be requested from each resource.
+     * @param priority If multiple components compete for the same resource, requests with higher priority will have precedence.
+     * @param oneOf If `true`, just one of the requests has to be met (or condition), where honoring follows the order given.
+     * @param failAt If the request is not honored before failAt, the request will be cancelled and the parameter failed will be set.
+     * @param failDelay If the request is not honored before `now + failDelay`, the request will be cancelled and the parameter failed will be set.
+     * @param failPriority Schedule priority of the fail event.
+     */
+    fun request(
+        vararg resources: Resource,
+        description: String? = null,
+        quantity: Number = DEFAULT_REQUEST_QUANTITY,
+        priority: Priority? = null,
+        oneOf: Boolean = false,
+        failAt: SimTime? = null,
+        failDelay: Duration? = null,
+        failPriority: Priority = NORMAL,
+        capacityLimitMode: CapacityLimitMode = if(resources.size==1) resources.first().defaultLimitMode  else CapacityLimitMode.FAIL,
+    ) = request(
+        *resources.map { it withQuantity quantity andPriority priority }.toTypedArray(),
+        description = description,
+        failAt = failAt,
+        failDelay = failDelay,
+        oneOf = oneOf,
+        failPriority = failPriority,
+        capacityLimitMode = capacityLimitMode
+    )
+
+    /**
+     * Request from a resource or resources without suspending the process. This is intended for
+     * [state machine processes][processStep].
+     *
+     * For `request` contract see [user manual](https://www.kalasim.org/component/#request)
+     *
+     * @param resourceRequests Each `ResourceRequest` is a tuple of resource, quantity (default=1) and priority (default 0).
+     */
+    fun request(
+        vararg resourceRequests: ResourceRequest,
+        description: String? = null,
+        oneOf: Boolean = false,
+        urgent: Boolean = false,
+        failAt: SimTime? = null,
+        failDelay: Duration? = null,
+        failPriority: Priority = NORMAL,
+        capacityLimitMode: CapacityLimitMode = if(resourceRequests.size==1) resourceRequests.first().resource.defaultLimitMode  else CapacityLimitMode.FAIL,
+    ) = scheduleRequest(
+        resourceRequests.limitedBy(capacityLimitMode),
+        description,
+        oneOf,
+        urgent,
+        failAt,
+        failDelay,
+        failPriority
+    )
+
+    private fun Array<out ResourceRequest>.limitedBy(capacityLimitMode: CapacityLimitMode): List<ResourceRequest> =
+        when (capacityLimitMode) {
+            CapacityLimitMode.FAIL -> firstOrNull { abs(it.quantity) > it.resource.capacity }?.let {
                 throw CapacityLimitException(
                     it.resource,
                     "Request of quantity ${it.quantity} can never succeed",
                     now,
                     it.resource.capacity
                 )
-            } ?: resourceRequests.asList()
+            } ?: asList()
 
-            CapacityLimitMode.SCHEDULE -> resourceRequests.asList()
+            CapacityLimitMode.SCHEDULE -> asList()
 
-            CapacityLimitMode.CAP -> resourceRequests.map {
+            CapacityLimitMode.CAP -> map {
                 with(it) {
                     if (quantity < 0 && resource is DepletableResource) {
                         copy(quantity = max(resource.level - resource.capacity, quantity))
@@ -886,148 +1030,123 @@ open class Component(
             }
         }
 
-        yieldCurrent {
-            if (componentState != CURRENT) {
-                requireNotMain()
-                requireNotData()
-                requireNotInterrupted()
-                remove()
-                checkFail()
-            }
+    private fun scheduleRequest(
+        resourceRequests: List<ResourceRequest>,
+        description: String?,
+        oneOf: Boolean,
+        urgent: Boolean,
+        failAt: SimTime?,
+        failDelay: Duration?,
+        failPriority: Priority
+    ) {
+        if (componentState != CURRENT) {
+            requireNotMain()
+            requireNotData()
+            requireNotInterrupted()
+            remove()
+            checkFail()
+        }
 
-            require(requests.isEmpty()) { "no pending requests are allowed when requesting" }
-            // fails because of org.kalasim.test.ResourceTests#it should report correct resource in honor block when using oneOf mode
+        require(requests.isEmpty()) { "no pending requests are allowed when requesting" }
+        // fails because of org.kalasim.test.ResourceTests#it should report correct resource in honor block when using oneOf mode
 //            require(claims.isEmpty()) { "no open claims are allowed when requesting" }
 
-            require(failAt == null || failDelay == null) { "Either failAt or failDelay can be specified, not both together" }
-
-            scheduledTime = when {
-                failAt != null -> failAt
-                failDelay != null -> env.now + failDelay
-                else -> SimTime.DISTANT_FUTURE
-            }
-
-            failed = false
-            oneOfRequest = oneOf
+        require(failAt == null || failDelay == null) { "Either failAt or failDelay can be specified, not both together" }
 
-            resourceRequests.forEach { (resource, quantity, priority) ->
+        scheduledTime = when {
+            failAt != null -> failAt
+            failDelay != null -> env.now + failDelay
+            else -> SimTime.DISTANT_FUTURE
+        }
 
-                if (resource.preemptive && resourceRequests.size > 1) {
-                    throw IllegalArgumentException("preemptive resources do not support multiple resource requests")
-                }
+        failed = false
+        oneOfRequest = oneOf
 
-                //            // TODO clarify intent here
-                //            if (calledFrom == "put") {
-                //                q = -q
-                //            }
+        resourceRequests.forEach { (resource, quantity, priority) ->
 
-                require(quantity >= 0 || resource.depletable) { "quantity <0" }
+            if (resource.preemptive && resourceRequests.size > 1) {
+                throw IllegalArgumentException("preemptive resources do not support multiple resource requests")
+            }
 
-                val requestContext = RequestContext(random.nextLong().absoluteValue, quantity, priority, now, null)
+            //            // TODO clarify intent here
+            //            if (calledFrom == "put") {
+            //                q = -q
+            //            }
 
-                //  is same resource is specified several times, just add them up
-                //https://stackoverflow.com/questions/53826903/increase-value-in-mutable-map
-                // todo this may not not be correct for a RelaxedFCFS honor policy or a SQF --> replace entirely with list?
-                requests.merge(resource, requestContext, RequestContext::merge)
+            require(quantity >= 0 || resource.depletable) { "quantity <0" }
 
-                resource.requesters.add(this@Component, priority = priority)
+            val requestContext = RequestContext(random.nextLong().absoluteValue, quantity, priority, now, null)
 
-                if (resource.trackingConfig.logResourceChanges) {
-                    log(
-                        ResourceEvent(
-                            env.now,
-                            requestContext.requestId,
-                            env.currentComponent,
-                            this@Component,
-                            resource,
-                            REQUESTED,
-                            quantity,
-                            priority
-                        )
-                    )
-                }
+            //  is same resource is specified several times, just add them up
+            //https://stackoverflow.com/questions/53826903/increase-value-in-mutable-map
+            // todo this may not not be correct for a RelaxedFCFS honor policy or a SQF --> replace entirely with list?
+            requests.merge(resource, requestContext, RequestContext::merge)
 
-                if (resource.preemptive) {
-                    var av = resource.available
-                    val thisClaimers = resource.claimers.q
+            resource.addRequester(this@Component, priority)
 
-                    val bumpCandidates = mutableListOf<Component>()
-                    //                val claimComponents = thisClaimers.map { it.c }
-                    for (cqe in thisClaimers.toList().reversed()) {
-                        if (av >= quantity) {
-                            break
-                        }
+            log(resource.trackingConfig.logResourceChanges) {
+                ResourceEvent(
+                    env.now,
+                    requestContext.requestId,
+                    env.currentComponent,
+                    this@Component,
+                    resource,
+                    REQUESTED,
+                    quantity,
+                    priority
+                )
+            }
 
-                        // check if prior of component
-                        if ((priority?.value ?: 0) <= (cqe.priority?.value ?: 0)) {
-                            break
-                        }
+            if (resource.preemptive) {
+                var av = resource.available
+                val thisClaimers = resource.claimers.q
 
-                        av += cqe.component.claims[resource]!!.quantity
-                        bumpCandidates.add(cqe.component)
+                val bumpCandidates = mutableListOf<Component>()
+                //                val claimComponents = thisClaimers.map { it.c }
+                for (cqe in thisClaimers.toList().reversed()) {
+                    if (av >= quantity) {
+                        break
                     }
 
-                    if (av >= 0) {
-                        bumpCandidates.forEach {
-                            it.releaseInternal(resource, bumpedBy = this@Component)
-                            logInternal(
-                                trackingConfig.logInteractionEvents,
-                                "$it bumped from $resource by ${this@Component}"
-                            )
-
-                            it.activate()
-                        }
+                    // check if prior of component
+                    if ((priority?.value ?: 0) <= (cqe.priority?.value ?: 0)) {
+                        break
                     }
-                }
-            }
 
-            requests.forEach { (resource, requestContext) ->
-                val (_, quantity, _, _) = requestContext
-                if (quantity < resource.minq)
-                    resource.minq = quantity
-            }
+                    av += cqe.component.claims[resource]!!.quantity
+                    bumpCandidates.add(cqe.component)
+                }
 
-            tryRequest()
+                if (av >= 0) {
+                    bumpCandidates.forEach {
+                        it.releaseInternal(resource, bumpedBy = this@Component)
+                        logInternal(
+                            trackingConfig.logInteractionEvents,
+                            "$it bumped from $resource by ${this@Component}"
+                        )
 
-            if (requests.isNotEmpty()) {
-                reschedule(
-                    scheduledTime!!,
-                    priority = failPriority,
-                    urgent = urgent,
-                    description?.let { { it } },
-                    REQUEST
-                )
+                        it.activate()
+                    }
+                }
             }
         }
 
-        if (honorBlock != null) {
-            // suspend{ ... }
-            val honoredAt = now
-
-            honorBlock(RequestScopeContext(if (oneOf) claims.toList().last().first else null, requestedAt))
-
-            val releasedAt = now
+        requests.forEach { (resource, requestContext) ->
+            val (_, quantity, _, _) = requestContext
+            if (quantity < resource.minq)
+                resource.minq = quantity
+        }
 
-            // salabim says: It is possible to check which resource has been claimed with `Component.claimers()`.
-            // note we could alternative also use the request-id to identify the claim
-            resourceRequests.filter { it.resource.claimers.contains(this@Component) }.forEach {
-                release(it)
+        tryRequest()
 
-                if (it.resource.trackingConfig.trackActivities) {
-                    val rse =
-                        ResourceActivityEvent(
-                            requestedAt,
-                            honoredAt,
-                            releasedAt,
-                            this@Component,
-                            it.resource,
-                            description,
-                            it.quantity
-                        )
-                    (it.resource.activities as MutableList<ResourceActivityEvent>).add(rse)
-                    log(rse)
-                }
-            }
+        if (requests.isNotEmpty()) {
+            reschedule(
+                scheduledTime!!,
+                priority = failPriority,
+                urgent = urgent,
+                description?.let { { it } },
+                REQUEST
+            )
         }
     }
 
@@ -1115,11 +1234,11 @@ open class Component(
                 }
 
                 if (!resource.depletable) {
-                    val thisPrio = resource.requesters.q.firstOrNull { it.component == this }?.priority
+                    val thisPrio = resource.requesters.elementOf(this)?.priority
                     claims.merge(resource, requestContext.copy(honoredAt = now), RequestContext::merge)
 
                     //also register as claimer in resource if not yet present
-                    if (resource.claimers.q.none { it.component == this }) {
+                    if (!resource.claimers.contains(this)) {
                         resource.claimers.add(this, thisPrio)
                     }
                 }
@@ -1204,6 +1323,27 @@ open class Component(
         logStateChange("Ended")
     }
 
+    /**
+     * Called before a terminated component is reused by a [ComponentGenerator] with `pooled = true`. Components which
+     * maintain custom state should override it to restore their initial state. Their process is restarted afterwards.
+     */
+    protected open fun onRecycle() {}
+
+    internal fun recycle() {
+        require(isData) { "only terminated components can be recycled" }
+        require(lastProcess != null || definesProcessSteps) {
+            "component '${name}' must have process definition to be recycled"
+        }
+
+        failed = false
+        _cmpntPrps?.interruptProperties = null
+
+        onRecycle()
+
+        // restart the last process from its beginning
+        activate()
+    }
+
     private fun requireNotData() =
         require(componentState != DATA) { "data component '$name' not allowed" }
 
@@ -1227,37 +1367,61 @@ open class Component(
         }
 
         if (ASSERT_MODE == AssertMode.FULL) {
-            require(this !in env.queue) {
+            require(!env.isScheduled(this)) {
                 "component must not be in queue when rescheduling but must be removed already at this point"
             }
         }
 
-        val newStatus: ComponentState = when (type) {
+        markScheduled(scheduledTime, type)
+
+        // untimed requests and waits never fire, so they are parked outside the event queue until being honored
+        if (isParked(scheduledTime, type)) {
+            env.park(this, priority, urgent)
+        } else {
+            env.push(this, scheduledTime, priority, urgent)
+        }
+
+        notifyRescheduled(scheduledTime, description, type, publish = true)
+    }
+
+    private fun isParked(scheduledTime: SimTime, type: ScheduledType) =
+        scheduledTime.isDistantFuture && (type == REQUEST || type == WAIT)
+
+    // The bookkeeping of a reschedule is shared with bulk activations, which add all components to the event queue at
+    // once. It is split into updating the state before, and notifying listeners after adding a component to the queue.
+
+    private fun markScheduled(scheduledTime: SimTime, type: ScheduledType) {
+        componentState = when (type) {
             WAIT -> WAITING
             REQUEST -> REQUESTING
             HOLD, ACTIVATE -> SCHEDULED
         }
 
-        componentState = newStatus
-
         this.scheduledTime = scheduledTime
+    }
 
-        require(this.scheduledTime != null) { "reschedule with null time is unlikely to have meaningful semantics" }
+    /**
+     * Notifies the reschedule listeners of the component, and publishes the [RescheduledEvent] to the event bus if
+     * [publish] is set. The event is created at most once, and just if it is consumed.
+     */
+    private fun notifyRescheduled(
+        scheduledTime: SimTime,
+        description: DescriptionFn?,
+        type: ScheduledType,
+        publish: Boolean
+    ) {
+        val published = publish && trackingConfig.logStateChangeEvents &&
+                env.hasListeners(RescheduledEvent::class.java)
 
-        if (this.scheduledTime != null) {
-            env.push(this, scheduledTime, priority, urgent)
-        }
+        // component-local listeners are notified independent of event listeners and the tracking configuration
+        val localListeners = _cmpntPrps?.rescheduleListeners?.takeIf { it.isNotEmpty() }
 
-        log(trackingConfig.logStateChangeEvents) {
-            RescheduledEvent(
-                now,
-                env.currentComponent,
-                this,
-                description,
-                scheduledTime,
-                type
-            )
-        }
+        if (!published && localListeners == null) return
+
+        val event = RescheduledEvent(now, env.currentComponent, this, description, scheduledTime, type)
+
+        if (published) log(event)
+        localListeners?.forEach { it.rescheduled(event) }
     }
 
 
@@ -1511,6 +1675,38 @@ open class Component(
         keepWait: Boolean,
 
         ) {
+        val extra = prepareActivation(process, keepRequest, keepWait)
+
+        val scheduledTime = if (at == null) {
+            env.now + delay
+        } else {
+            at + delay
+        }
+
+        reschedule(scheduledTime, priority, urgent, { "Activating $extra" }, ACTIVATE)
+    }
+
+    /**
+     * Activates the component like [activate] but without scheduling it, which is done for all components at once
+     * by [Environment.activateAll].
+     */
+    internal fun prepareBulkActivation(scheduledTime: SimTime, process: ProcessReference?) {
+        prepareActivation(process, keepRequest = false, keepWait = false)
+
+        require(simProcess != null) { "component '${name}' must have process definition to be activated" }
+
+        // activations are never parked, so the caller can add all components to the event queue at once
+        markScheduled(scheduledTime, ACTIVATE)
+    }
+
+    /** Completes a bulk activation after the component was added to the event queue by [Environment.activateAll]. */
+    internal fun completeBulkActivation(scheduledTime: SimTime) {
+        // a single BulkActivationEvent is published instead of a RescheduledEvent per component
+        notifyRescheduled(scheduledTime, null, ACTIVATE, publish = false)
+    }
+
+    /** Sets up the process to be activated, and returns a description of it. */
+    private fun prepareActivation(process: ProcessReference?, keepRequest: Boolean, keepWait: Boolean): String {
         require(componentState != CURRENT || process != null) {
             // original contract
             "Can not activate the CURRENT component. If needed simply use hold method."
@@ -1534,6 +1730,11 @@ open class Component(
             this.simProcess = processReference.generatorFunRef.ingestFunPointer(*processReference.arguments)
 
             extra = "process=${processReference.generatorFunRef.name}"
+        } else if (componentState == DATA && definesProcessSteps) {
+            // restart the state machine from its first step
+            this.simProcess = StepProcess(this)
+
+            extra = "process=processStep"
         }
 
         if (componentState != CURRENT) {
@@ -1547,13 +1748,7 @@ open class Component(
             }
         }
 
-        val scheduledTime = if (at == null) {
-            env.now + delay
-        } else {
-            at + delay
-        }
-
-        reschedule(scheduledTime, priority, urgent, { "Activating $extra" }, ACTIVATE)
+        return extra
     }
 
     internal fun checkFail() {
@@ -1916,6 +2111,67 @@ open class Component(
         failPriority: Priority = NORMAL,
         all: Boolean = true
     ) = yieldCurrent {
+        scheduleWait(stateRequests, description, urgent, failAt, failDelay, failPriority, all)
+    }
+
+    /**
+     * Wait for the given [state](https://www.kalasim.org/state) value without suspending the process. This is intended
+     * for [state machine processes][processStep], which can check with [failed] in their next step if the wait has
+     * timed out.
+     *
+     * For `wait` contract see [user manual](https://www.kalasim.org/component/#wait)
+     *
+     * @param state A state variable
+     * @param waitFor The state value to wait for
+     * @param triggerPriority The queue priority to be used along with a [state change trigger](https://www.kalasim.org/state/#state-change-triggers)
+     * @param failAt If the request is not honored before failAt, the request will be cancelled and the parameter failed will be set.
+     * @param failDelay If the request is not honored before `now + failDelay`, the request will be cancelled and the parameter failed will be set.
+     * @param failPriority Schedule priority of the fail event.
+     */
+    fun <T> wait(
+        state: State<T>,
+        waitFor: T,
+        description: String? = null,
+        triggerPriority: Priority = NORMAL,
+        failAt: SimTime? = null,
+        failDelay: Duration? = null,
+        failPriority: Priority = NORMAL
+    ) = wait(
+        StateRequest(state, priority = triggerPriority) { state.value == waitFor },
+        description = asLambda(description),
+        failPriority = failPriority,
+        failAt = failAt,
+        failDelay = failDelay,
+    )
+
+    /**
+     * Wait for any or all of the given state values without suspending the process. This is intended for
+     * [state machine processes][processStep].
+     *
+     * For `wait` contract see [user manual](https://www.kalasim.org/component/#wait)
+     *
+     * @param stateRequests Requests indicating a state and a target condition or predicate for fulfilment
+     * @param all If `false`, continue, if any of the given state/values is met. if `true` (default), continue if all of the given state/values are met.
+     */
+    fun wait(
+        vararg stateRequests: StateRequest<*>,
+        description: DescriptionFn? = null,
+        urgent: Boolean = false,
+        failAt: SimTime? = null,
+        failDelay: Duration? = null,
+        failPriority: Priority = NORMAL,
+        all: Boolean = true
+    ) = scheduleWait(stateRequests, description, urgent, failAt, failDelay, failPriority, all)
+
+    private fun scheduleWait(
+        stateRequests: Array<out StateRequest<*>>,
+        description: DescriptionFn?,
+        urgent: Boolean,
+        failAt: SimTime?,
+        failDelay: Duration?,
+        failPriority: Priority,
+        all: Boolean
+    ) {
         if (componentState != CURRENT) {
             requireNotMain()
             requireNotData()
@@ -2007,7 +2263,8 @@ open class Component(
         get() = ComponentSnapshot(this)
 
 
-    internal suspend fun SequenceScope<Component>.yieldCurrent(builder: () -> Unit = {}) {
+    // inlined to save a suspending frame and the allocation of the builder per suspension
+    internal suspend inline fun SequenceScope<Component>.yieldCurrent(builder: () -> Unit = {}) {
         val initialStatus = componentState
 
         require(initialStatus == CURRENT) {
@@ -2134,6 +2391,9 @@ open class Component(
 
 
     companion object {
+        /** Step to be returned by [processStep] to end the process. */
+        const val PROCESS_END = -1
+
         val logger = KotlinLogging.logger {}
 //        val logger : KLogger
 //    get() = KotlinLogging.logger(javaClass.canonicalName)
@@ -2141,8 +2401,6 @@ open class Component(
     }
 }
 
-internal fun Koin.getEnvDefaults(): SimEntityTrackingDefaults = get<Environment>().entityTrackingDefaults
-
 internal val SELECT_SCOPE_IDX = mutableMapOf<Int, Int>()
 
 
@@ -2203,6 +2461,29 @@ class GenProcessInternal(val component: Component, seq: Sequence<Component>, ove
     }
 }
 
+/** Drives the state machine defined by [Component.processStep]. */
+internal class StepProcess(val component: Component) : SimProcess {
+
+    private var step = 0
+
+    override val name: String
+        get() = "processStep"
+
+    override fun call() {
+        while (true) {
+            if (step < 0) {
+                component.terminate()
+                return
+            }
+
+            step = component.processStep(step)
+
+            // continue with the next step if the component has not been scheduled
+            if (component.componentState != CURRENT) return
+        }
+    }
+}
+
 // Disabled because never used and seems obsolete. Just kept for salabim-compat until a first major release
 //class SimpleProcessInternal(val component: Component, val funPointer: ProcessPointer, override val name: String) :
 //    SimProcess {
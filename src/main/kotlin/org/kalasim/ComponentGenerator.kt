@@ -3,6 +3,7 @@ package org.kalasim
 import org.apache.commons.math3.distribution.RealDistribution
 import org.kalasim.analysis.snapshot.ComponentGeneratorSnapshot
 import org.kalasim.misc.AmbiguousDuration
+import org.kalasim.misc.InternalKalasimApi
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.seconds
 
@@ -20,6 +21,7 @@ class ComponentGenerator<T>(
     name: String? = null,
     priority: Priority = Priority.NORMAL,
     val keepHistory: Boolean = false,
+    val pooled: Boolean = false,
     envProvider: EnvProvider = DefaultProvider(),
     val builder: Environment.(counter: Int) -> T
 ) : Component(name, priority = priority, at = startAt, process = ComponentGenerator<T>::doIat, envProvider = envProvider) {
@@ -41,6 +43,7 @@ class ComponentGenerator<T>(
         name: String? = null,
         priority: Priority = Priority.NORMAL,
         keepHistory: Boolean = false,
+        pooled: Boolean = false,
         envProvider: EnvProvider = DefaultProvider(),
         builder: Environment.(counter: Int) -> T
     ) : this(
@@ -52,6 +55,7 @@ class ComponentGenerator<T>(
         name,
         priority,
         keepHistory,
+        pooled,
         envProvider,
         builder
     )
@@ -70,6 +74,7 @@ class ComponentGenerator<T>(
         name: String? = null,
         priority: Priority = Priority.NORMAL,
         keepHistory: Boolean = false,
+        pooled: Boolean = false,
         envProvider: EnvProvider = DefaultProvider(),
         builder: Environment.(counter: Int) -> T
     ) : this(
@@ -81,12 +86,20 @@ class ComponentGenerator<T>(
         name,
         priority,
         keepHistory,
+        pooled,
         envProvider,
         builder
     )
 
+    init {
+        require(!(pooled && keepHistory)) { "history can not be kept for pooled components, as they are reused" }
+    }
+
     val history: List<T> = mutableListOf<T>()
 
+    // terminated components which can be reused, see https://www.kalasim.org/component/#component-pooling
+    private val pool = ArrayDeque<Component>()
+
     fun interface CompGenObserver<K> {
         fun consume(generated: K)
     }
@@ -114,7 +127,7 @@ class ComponentGenerator<T>(
 
             hold(interArrivalTime)
 
-            val created = builder(env, numGenerated)
+            val created = recycled() ?: builder(env, numGenerated).also { if(pooled && it is Component) track(it) }
             numGenerated++
 
             consumers.forEach { it.consume(created) }
@@ -125,6 +138,27 @@ class ComponentGenerator<T>(
         }
     }
 
+    @OptIn(InternalKalasimApi::class)
+    private fun track(component: Component) {
+        component.cmpntPrps.stateChangeListeners.add { if(it.isData) pool.addLast(it) }
+    }
+
+    private fun recycled(): T? {
+        while(pool.isNotEmpty()) {
+            val component = pool.removeLast()
+
+            // skip components which have been activated again since they terminated
+            if(!component.isData) continue
+
+            component.recycle()
+
+            @Suppress("UNCHECKED_CAST")
+            return component as T
+        }
+
+        return null
+    }
+
 //    private fun doFinalize(): Sequence<Component> = sequence {
 //        log(env.now, env.curComponent, this@ComponentGenerator, "till reached")
 //    }
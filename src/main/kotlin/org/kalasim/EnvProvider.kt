@@ -19,11 +19,13 @@ fun interface EnvProvider {
 /**
  * Default implementation of [EnvProvider] that retrieves the environment from the dependency context.
  *
- * The environment is lazily cached on first access using thread-unsafe lazy initialization.
+ * The environment is cached on first access without synchronization. Since a provider is created for each entity
+ * by default, the environment is resolved from a per-thread cache of the dependency context instead of by a koin lookup.
  */
 class DefaultProvider : EnvProvider {
-    private val cachedEnv by lazy(LazyThreadSafetyMode.NONE) { DependencyContext.get().get<Environment>() }
-    override fun getEnv(): Environment = cachedEnv
+    private var cachedEnv: Environment? = null
+
+    override fun getEnv(): Environment = cachedEnv ?: DependencyContext.getEnvironment().also { cachedEnv = it }
 }
 
 /**
@@ -10,6 +10,7 @@ import org.kalasim.ComponentState.STANDBY
 import org.kalasim.Defaults.DEFAULT_SEED
 import org.kalasim.Priority.Companion.LOWEST
 import org.kalasim.Priority.Companion.NORMAL
+import org.kalasim.analysis.BulkActivationEvent
 import org.kalasim.analysis.ConsoleTraceLogger
 import org.kalasim.analysis.InteractionEvent
 import org.kalasim.misc.*
@@ -50,6 +51,8 @@ fun KoinModule.createSimulation(
     /** The duration unit of this environment. Every tick corresponds to a unit duration. See https://www.kalasim.org/basics/#running-a-simulation */
     durationUnit: DurationUnit = MINUTES,
     randomSeed: Int = DEFAULT_SEED,
+    /** The future event list of the simulation. See [EventQueue] for the available implementations. */
+    eventQueue: EventQueue = BinaryHeapEventQueue(),
     builder: Environment.() -> Unit,
 ): Environment = createSimulation(
     startDate = startDate,
@@ -58,6 +61,7 @@ fun KoinModule.createSimulation(
     useCustomKoin = useCustomKoin,
     tickDurationUnit = durationUnit,
     randomSeed = randomSeed,
+    eventQueue = eventQueue,
     builder = builder
 )
 
@@ -71,6 +75,8 @@ fun createSimulation(
     /** The duration unit of this environment. Every tick corresponds to a unit duration. See https://www.kalasim.org/basics/#running-a-simulation */
     tickDurationUnit: DurationUnit = MINUTES,
     randomSeed: Int = DEFAULT_SEED,
+    /** The future event list of the simulation. See [EventQueue] for the available implementations. */
+    eventQueue: EventQueue = BinaryHeapEventQueue(),
     builder: Environment.() -> Unit,
 ): Environment = Environment(
     startDate = startDate,
@@ -78,7 +84,8 @@ fun createSimulation(
     tickDurationUnit = tickDurationUnit,
     dependencies = dependencies,
     koin = if(useCustomKoin) koinApplication { }.koin else null,
-    randomSeed = randomSeed
+    randomSeed = randomSeed,
+    eventQueue = eventQueue
 ).apply(builder)
 
 
@@ -112,6 +119,8 @@ open class Environment(
     dependencies: KoinModule? = null,
     koin: Koin? = null,
     randomSeed: Int = DEFAULT_SEED,
+    /** The future event list of the simulation. See [EventQueue] for the available implementations. */
+    private val eventQueue: EventQueue = BinaryHeapEventQueue(),
 ) : SimContext, WithJson {
 
     internal var running: Boolean = false
@@ -122,20 +131,28 @@ open class Environment(
 
     internal val nameCache = mutableMapOf<String, Int>()
 
-    // As discussed in https://github.com/holgerbrandl/kalasim/issues/8, we could alternatively use a fibonacci
-    // heap for better performance
-    private val eventQueue = PriorityQueue<QueueElement>()
+    // Untimed requesting or waiting components. They are not part of the event queue, as they would never fire.
+    // Keyed by identity, because components may be data classes.
+    private val parked = IdentityHashMap<Component, QueueElement>()
 
-    /** Unmodifiable sorted view of currently scheduled components. */
+    /** Unmodifiable sorted view of currently scheduled components. Parked components are listed last. */
     val queue: List<Component>
         //        get() = eventQueue.map { it.component }
-        get() = eventQueue.sortedIterator()
-            .map { it.component }
-            .toList()
+        get() = (eventQueue.elements() + parked.values).sorted().map { it.component }
+
+    // the registered listeners in the order of registration
+    private val listeners = ArrayList<EventListener>()
+    internal val eventListeners: List<EventListener>
+        get() = listeners
+
+    private val logQueue: Queue<Event> = ArrayDeque()
+
+    // indicates per event type if any listener consumes it, invalidated when listeners change
+    private val subscriptions = HashMap<Class<out Event>, Boolean>()
 
-    // intentionally immutable to avoid checkForCoModification when iterating it (suggested by chat-gpt)
-    internal var eventListeners: List<EventListener> = emptyList()
-    private val logQueue: Queue<Event> = LinkedList()
+    // the listeners consuming the events of a type, invalidated when listeners change. Events are dispatched to these
+    // snapshots, so that listeners can be added or removed while dispatching an event
+    private val dispatchTable = HashMap<Class<out Event>, Array<EventListener>>()
 
 
     /** The current time of the simulation. See https://www.kalasim.org/basics/#running-a-simulation.*/
@@ -286,7 +303,7 @@ open class Environment(
      * @return A sorted list of [QueueElement]s representing the current state of the event queue
      */
     @InternalKalasimApi
-    fun computeQueueStatus() = eventQueue.sortedIterator().toList()
+    fun computeQueueStatus() = (eventQueue.elements() + parked.values).sorted()
 
     private val standBy = mutableListOf<Component>()
     private val pendingStandBy = mutableListOf<Component>()
@@ -362,9 +379,7 @@ open class Environment(
 
 
         val (time, component) = if(eventQueue.isNotEmpty()) {
-            val (c, time, _, _) = eventQueue.poll()
-
-            time to c
+            eventQueue.peekTime() to eventQueue.poll()
         } else {
             publishEvent(InteractionEvent(now, currentComponent, null, { "run end; no events left" }))
             val t = now
@@ -407,22 +422,49 @@ open class Environment(
         addEventListener(listener)
     }
 
+    /**
+     * Adds a listener, which hands events in batches to the [consumer] running in a separate thread. Unlike
+     * [addAsyncEventListener], events are buffered with bounded memory, see [BatchingEventListener] for details.
+     */
+    inline fun <reified T : Event> addBatchingEventListener(
+        capacity: Int = BatchingEventListener.DEFAULT_CAPACITY,
+        overflowPolicy: OverflowPolicy = OverflowPolicy.BLOCK,
+        maxBatchSize: Int = BatchingEventListener.DEFAULT_BATCH_SIZE,
+        sampleInterval: Int = BatchingEventListener.DEFAULT_SAMPLE_INTERVAL,
+        noinline consumer: (List<T>) -> Unit
+    ) = BatchingEventListener(T::class.java, capacity, overflowPolicy, maxBatchSize, sampleInterval, consumer).also {
+        addEventListener(it)
+    }
+
     inline fun <reified T : Event> addEventListener(
         crossinline block: (T) -> Unit
-    ) = addEventListener listener@{
-        if(it !is T) return@listener
-        block(it)
-    }
+    ) = addEventListener(object : EventListener {
+        override val eventType = T::class.java
+
+        override fun consume(event: Event) {
+            if(event is T) block(event)
+        }
+    })
 
     fun addEventListener(listener: EventListener) {
-//        eventListeners.add(listener)
-        eventListeners += listener
+        listeners += listener
+        subscriptions.clear()
+        dispatchTable.clear()
     }
 
     @Suppress("unused")
     fun removeEventListener(eventListener: EventListener) {
-//        = eventListeners.remove(tr)
-        eventListeners -= eventListener
+        listeners -= eventListener
+        subscriptions.clear()
+        dispatchTable.clear()
+    }
+
+    /**
+     * Indicates if any listener may consume events of the given type. To be on the safe side, this includes listeners of
+     * subtypes, because the actual type of an event is not known before creating it.
+     */
+    internal fun hasListeners(eventType: Class<out Event>): Boolean = subscriptions.getOrPut(eventType) {
+        listeners.any { it.eventType.isAssignableFrom(eventType) || eventType.isAssignableFrom(it.eventType) }
     }
 
 
@@ -436,12 +478,18 @@ open class Environment(
      */
     @Suppress("unused")
     @InternalKalasimApi
-    fun getEventListeners() = eventListeners
+    fun getEventListeners() = listeners.toList()
 
 
+    private fun listenersOf(eventType: Class<out Event>) = dispatchTable.getOrPut(eventType) {
+        listeners.filter { it.eventType.isAssignableFrom(eventType) }.toTypedArray()
+    }
+
     private var isProcessing = false
 
     internal fun publishEvent(event: Event) {
+        if (!hasListeners(event.javaClass)) return
+
         logQueue.add(event)
 
         if (isProcessing) return // Avoid recursion
@@ -449,11 +497,53 @@ open class Environment(
         isProcessing = true
         while (logQueue.isNotEmpty()) {
             val currentEvent = logQueue.poll()
-            eventListeners.forEach { it.consume(currentEvent) }
+            listenersOf(currentEvent.javaClass).forEach { it.consume(currentEvent) }
         }
         isProcessing = false
     }
 
+    /**
+     * Activates several components for the same time. Compared to activating them one by one, the event queue is
+     * built in linear time, and a single [BulkActivationEvent] is published instead of a `RescheduledEvent` per
+     * component. This speeds up mass activations such as loading the initial work in progress of a model. The
+     * components are scheduled in the given order, so the simulation is the same as if they were activated one by one.
+     *
+     * For `activate` contract see [user manual](https://www.kalasim.org/component/#activate)
+     *
+     * @param at The schedule time. If omitted, the components are activated now.
+     * @param process The process to be started. It must be provided for components created with
+     * `process = Component::none`. If omitted, the process of a component is not changed.
+     */
+    fun activateAll(
+        components: Collection<Component>,
+        at: SimTime? = null,
+        priority: Priority = NORMAL,
+        urgent: Boolean = false,
+        process: ProcessPointerWithArg<*>? = null
+    ) {
+        if(components.isEmpty()) return
+
+        val scheduledTime = at ?: now
+        require(scheduledTime >= now) { "scheduled time (${scheduledTime}) before now (${now})" }
+        // keyed by identity, because components may be data classes
+        val distinct = Collections.newSetFromMap(IdentityHashMap<Component, Boolean>()).apply { addAll(components) }
+        require(distinct.size == components.size) { "components must not be activated more than once" }
+
+        val activated = components.toList()
+        val processReference = process?.let { Component.ProcessReference(it) }
+
+        activated.forEach { it.prepareBulkActivation(scheduledTime, processReference) }
+
+        eventQueue.addAll(activated, scheduledTime, priority, queueCounter + 1, urgent)
+        queueCounter += activated.size
+
+        activated.forEach { it.completeBulkActivation(scheduledTime) }
+
+        if(hasListeners(BulkActivationEvent::class.java) && activated.any { it.trackingConfig.logStateChangeEvents }) {
+            publishEvent(BulkActivationEvent(now, currentComponent, activated, scheduledTime))
+        }
+    }
+
     /**
      * Stops the simulation after the current event step. This will preserve its queue and process state.
      *
@@ -487,24 +577,37 @@ open class Environment(
     }
 
     internal fun unschedule(c: Component) {
-        val queueElem = eventQueue.firstOrNull {
-            it.component == c
-        }
-
-        if(queueElem != null) {
-            eventQueue.remove(queueElem)
-        }
+        if(!eventQueue.remove(c)) parked.remove(c)
     }
 
+    /** Indicates if the given component is currently scheduled in the event queue or parked. */
+    internal fun isScheduled(c: Component) = c in eventQueue || c in parked
+
     private var queueCounter: Int = 0
 
+    /**
+     * Parks a component that is requesting or waiting without a fail time. Such a component can only be continued
+     * by honoring its request or wait, so it is kept outside the event queue.
+     */
+    internal fun park(component: Component, priority: Priority, urgent: Boolean) {
+        queueCounter++
+
+        unschedule(component)
+
+        parked[component] =
+            QueueElement(component, SimTime.DISTANT_FUTURE, Priority(-priority.value), queueCounter, urgent)
+    }
+
     internal fun push(component: Component, scheduledTime: SimTime, priority: Priority, urgent: Boolean) {
         queueCounter++
 
+        // a component can only have a single pending continuation, so we replace a stale one if present
+        unschedule(component)
+
 //        https://bezkoder.com/kotlin-priority-queue/
         // Remove an element from the Priority Queue => Dequeue the least element. The front of the Priority Queue
         // contains the least element according to the ordering, and the rear contains the greatest element.
-        eventQueue.add(QueueElement(component, scheduledTime, Priority(-priority.value), queueCounter, urgent))
+        eventQueue.add(component, scheduledTime, priority, queueCounter, urgent)
 
         // consistency checks
         if(ASSERT_MODE == AssertMode.FULL) {
@@ -556,8 +659,15 @@ data class QueueElement(
 ) : Comparable<QueueElement> {
     //TODO clarify if we need/want to also support urgent
 
-    override fun compareTo(other: QueueElement): Int =
-        compareValuesBy(this, other, { it.time }, { it.priority.value }, { it.queueCounter })
+    override fun compareTo(other: QueueElement): Int {
+        val byTime = time.compareTo(other.time)
+        if(byTime != 0) return byTime
+
+        val byPriority = priority.value.compareTo(other.priority.value)
+        if(byPriority != 0) return byPriority
+
+        return queueCounter.compareTo(other.queueCounter)
+    }
 
 //    val heapSeq = if (urgent) -queueCounter else queueCounter
 
@@ -0,0 +1,763 @@
+package org.kalasim
+
+
+/**
+ * The future event list of an [Environment].
+ *
+ * Implementations must order their elements by scheduled time, then by descending priority and finally by ascending
+ * queue counter, so that all of them replay a simulation with exactly the same event order. A component is contained
+ * at most once in the queue.
+ *
+ * kalasim ships with [BinaryHeapEventQueue] (the default), [CalendarEventQueue] and [LadderEventQueue]. The
+ * bucket-based queues tend to be faster for models with many events at dense and near-uniform timestamps.
+ * See https://github.com/holgerbrandl/kalasim/issues/8 for the discussion of alternatives.
+ */
+interface EventQueue {
+
+    /** Number of scheduled components. */
+    val size: Int
+
+    fun isEmpty(): Boolean = size == 0
+
+    fun isNotEmpty(): Boolean = size > 0
+
+    /**
+     * Schedules a component. The caller must ensure that the component is not yet contained in the queue.
+     *
+     * @param priority The priority of the component. Higher priorities are polled first if scheduled at the same time.
+     * @param queueCounter Strictly increasing counter to break ties of time and priority in FIFO order.
+     */
+    fun add(component: Component, time: SimTime, priority: Priority, queueCounter: Int, urgent: Boolean)
+
+    /**
+     * Schedules several components for the same time. The caller must ensure that the components are distinct and not
+     * yet contained in the queue. They are assigned consecutive queue counters starting at [firstQueueCounter].
+     *
+     * Implementations may override this to schedule the components more efficiently than one by one.
+     */
+    fun addAll(components: List<Component>, time: SimTime, priority: Priority, firstQueueCounter: Int, urgent: Boolean) {
+        components.forEachIndexed { index, component ->
+            add(component, time, priority, firstQueueCounter + index, urgent)
+        }
+    }
+
+    /** Returns the scheduled time of the next component without removing it from the queue. */
+    fun peekTime(): SimTime
+
+    /** Removes and returns the next component. */
+    fun poll(): Component
+
+    /** Removes the given component from the queue. Returns `false` if the component was not scheduled.*/
+    fun remove(component: Component): Boolean
+
+    operator fun contains(component: Component): Boolean
+
+    /** Returns all scheduled elements in no particular order. */
+    fun elements(): List<QueueElement>
+}
+
+
+/**
+ * Binary min-heap event queue.
+ *
+ * In contrast to `java.util.PriorityQueue`, every scheduled component knows its own slot (see
+ * `Component.queueIndex`). This allows removing or rescheduling a component in O(log n) without scanning the heap.
+ * The heap itself just contains slot numbers and a copy of their time keys, so sifting neither allocates nor
+ * dereferences any objects unless two events are scheduled at the same time.
+ */
+class BinaryHeapEventQueue : EventQueue {
+
+    private val slots = EventSlots()
+
+    private var heap = IntArray(INITIAL_CAPACITY)
+    private var heapKeys = LongArray(INITIAL_CAPACITY)
+    // heap index of every slot
+    private var positions = IntArray(INITIAL_CAPACITY)
+
+    override var size: Int = 0
+        private set
+
+    override operator fun contains(component: Component) = slots.slotOf(component) != -1
+
+    override fun add(component: Component, time: SimTime, priority: Priority, queueCounter: Int, urgent: Boolean) {
+        val slot = slots.allocate(component, time, priority.value, queueCounter, urgent)
+
+        if(size == heap.size) {
+            heap = heap.copyOf(size * 2)
+            heapKeys = heapKeys.copyOf(size * 2)
+        }
+        if(slot >= positions.size) positions = positions.copyOf(maxOf(slot + 1, positions.size * 2))
+
+        siftUp(size++, slot, slots.keys[slot])
+    }
+
+    /** Appends all components to the heap, and restores the heap property in O(n) if this is cheaper than sifting. */
+    override fun addAll(
+        components: List<Component>,
+        time: SimTime,
+        priority: Priority,
+        firstQueueCounter: Int,
+        urgent: Boolean
+    ) {
+        val total = size + components.size
+
+        // sifting up every component requires up to log(n) comparisons each, whereas heapifying requires up to 2n
+        val log2 = 32 - Integer.numberOfLeadingZeros(total)
+        if(components.size.toLong() * log2 < 2L * total) {
+            return super.addAll(components, time, priority, firstQueueCounter, urgent)
+        }
+
+        if(total > heap.size) {
+            heap = heap.copyOf(maxOf(total, heap.size * 2))
+            heapKeys = heapKeys.copyOf(heap.size)
+        }
+
+        components.forEachIndexed { index, component ->
+            val slot = slots.allocate(component, time, priority.value, firstQueueCounter + index, urgent)
+            if(slot >= positions.size) positions = positions.copyOf(maxOf(slot + 1, positions.size * 2))
+
+            place(size++, slot, slots.keys[slot])
+        }
+
+        // Floyd's heap construction
+        for(index in (size ushr 1) - 1 downTo 0) siftDown(index, heap[index], heapKeys[index])
+    }
+
+    override fun peekTime(): SimTime {
+        check(size > 0) { "event queue is empty" }
+
+        return slots.times[heap[0]]!!
+    }
+
+    override fun poll(): Component {
+        check(size > 0) { "event queue is empty" }
+
+        val slot = heap[0]
+        val component = slots.components[slot]!!
+
+        removeAt(0)
+        slots.release(slot)
+
+        return component
+    }
+
+    override fun remove(component: Component): Boolean {
+        val slot = slots.slotOf(component)
+        if(slot == -1) return false
+
+        removeAt(positions[slot])
+        slots.release(slot)
+
+        return true
+    }
+
+    override fun elements(): List<QueueElement> = List(size) { slots.element(heap[it]) }
+
+    private fun removeAt(index: Int) {
+        val last = heap[--size]
+        val lastKey = heapKeys[size]
+
+        if(index == size) return
+
+        siftDown(index, last, lastKey)
+        if(heap[index] == last) siftUp(index, last, lastKey)
+    }
+
+    private fun less(slot: Int, key: Long, otherSlot: Int, otherKey: Long) =
+        if(key != otherKey) key < otherKey else slots.less(slot, otherSlot)
+
+    private fun siftUp(start: Int, slot: Int, key: Long) {
+        var k = start
+
+        while(k > 0) {
+            val parent = (k - 1) ushr 1
+            if(!less(slot, key, heap[parent], heapKeys[parent])) break
+
+            place(k, heap[parent], heapKeys[parent])
+            k = parent
+        }
+
+        place(k, slot, key)
+    }
+
+    private fun siftDown(start: Int, slot: Int, key: Long) {
+        var k = start
+        val half = size ushr 1
+
+        while(k < half) {
+            var child = 2 * k + 1
+
+            val right = child + 1
+            if(right < size && less(heap[right], heapKeys[right], heap[child], heapKeys[child])) child = right
+
+            if(!less(heap[child], heapKeys[child], slot, key)) break
+
+            place(k, heap[child], heapKeys[child])
+            k = child
+        }
+
+        place(k, slot, key)
+    }
+
+    private fun place(index: Int, slot: Int, key: Long) {
+        heap[index] = slot
+        heapKeys[index] = key
+        positions[slot] = index
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 64
+    }
+}
+
+
+/** A doubly linked list of slots in [EventSlots]. */
+internal class SlotList {
+    var head = -1
+    var tail = -1
+    var size = 0
+}
+
+/**
+ * Flat storage of scheduled events shared by all event queues. Every event occupies a slot in a set of parallel
+ * arrays, and every component remembers its slot (see `Component.queueIndex`). Slots can be threaded into doubly
+ * linked [SlotList]s, which allows the bucket-based queues to unlink a component in O(1).
+ *
+ * Times are compared by means of a primitive key, which are the nanoseconds relative to the first scheduled time.
+ * Keys saturate at [MAX_KEY], which keeps all bucket arithmetic free of overflows. Only in case of equal keys the
+ * comparison falls back to the priority and queue counter, and for saturated keys also to the actual time.
+ */
+internal class EventSlots {
+
+    var keys = LongArray(INITIAL_CAPACITY)
+        private set
+    var times = arrayOfNulls<SimTime>(INITIAL_CAPACITY)
+        private set
+    var components = arrayOfNulls<Component>(INITIAL_CAPACITY)
+        private set
+    private var priorities = IntArray(INITIAL_CAPACITY)
+    private var counters = IntArray(INITIAL_CAPACITY)
+    private var urgent = BooleanArray(INITIAL_CAPACITY)
+
+    private var next = IntArray(INITIAL_CAPACITY)
+    private var prev = IntArray(INITIAL_CAPACITY)
+    private var lists = arrayOfNulls<SlotList>(INITIAL_CAPACITY)
+
+    private var used = 0
+    private var freeHead = -1
+
+    private var origin: SimTime? = null
+
+    fun allocate(component: Component, time: SimTime, priority: Int, queueCounter: Int, urgent: Boolean): Int {
+        val slot = if(freeHead != -1) {
+            freeHead.also { freeHead = next[it] }
+        } else {
+            if(used == keys.size) grow()
+            used++
+        }
+
+        keys[slot] = key(time)
+        times[slot] = time
+        components[slot] = component
+        priorities[slot] = priority
+        counters[slot] = queueCounter
+        this.urgent[slot] = urgent
+
+        component.queueIndex = slot
+
+        return slot
+    }
+
+    fun release(slot: Int): Component {
+        val component = components[slot]!!
+        component.queueIndex = -1
+
+        components[slot] = null
+        times[slot] = null
+        next[slot] = freeHead
+        freeHead = slot
+
+        return component
+    }
+
+    /** Returns the slot of the given component or -1 if it is not contained. */
+    fun slotOf(component: Component): Int {
+        val slot = component.queueIndex
+        return if(slot in 0 until used && components[slot] === component) slot else -1
+    }
+
+    fun element(slot: Int) =
+        QueueElement(components[slot]!!, times[slot]!!, Priority(-priorities[slot]), counters[slot], urgent[slot])
+
+    fun less(a: Int, b: Int): Boolean {
+        val keyA = keys[a]
+        val keyB = keys[b]
+        if(keyA != keyB) return keyA < keyB
+
+        if(keyA == MAX_KEY || keyA == -MAX_KEY) {
+            val byTime = times[a]!!.compareTo(times[b]!!)
+            if(byTime != 0) return byTime < 0
+        }
+
+        if(priorities[a] != priorities[b]) return priorities[a] > priorities[b]
+
+        return counters[a] < counters[b]
+    }
+
+    fun next(slot: Int) = next[slot]
+
+    fun linkLast(list: SlotList, slot: Int) {
+        lists[slot] = list
+        next[slot] = -1
+        prev[slot] = list.tail
+
+        if(list.tail == -1) list.head = slot else next[list.tail] = slot
+        list.tail = slot
+        list.size++
+    }
+
+    /** Inserts a slot into a sorted list. Scans from the tail, because new events tend to be scheduled late. */
+    fun linkSorted(list: SlotList, slot: Int) {
+        var before = list.tail
+        while(before != -1 && less(slot, before)) before = prev[before]
+
+        lists[slot] = list
+        prev[slot] = before
+
+        if(before == -1) {
+            next[slot] = list.head
+            list.head = slot
+        } else {
+            next[slot] = next[before]
+            next[before] = slot
+        }
+
+        if(next[slot] == -1) list.tail = slot else prev[next[slot]] = slot
+        list.size++
+    }
+
+    fun unlink(slot: Int): SlotList {
+        val list = lists[slot]!!
+        lists[slot] = null
+
+        if(prev[slot] == -1) list.head = next[slot] else next[prev[slot]] = next[slot]
+        if(next[slot] == -1) list.tail = prev[slot] else prev[next[slot]] = prev[slot]
+        list.size--
+
+        return list
+    }
+
+    /** Moves all slots of [from] into [to] while keeping [to] sorted.*/
+    fun transferSorted(from: SlotList, to: SlotList) {
+        var slot = from.head
+        while(slot != -1) {
+            val successor = next[slot]
+            unlink(slot)
+            linkSorted(to, slot)
+            slot = successor
+        }
+    }
+
+    private fun key(time: SimTime): Long {
+        val origin = origin ?: time.also { origin = it }
+
+        val seconds = time.epochSeconds - origin.epochSeconds
+        if(seconds > MAX_KEY_SECONDS) return MAX_KEY
+        if(seconds < -MAX_KEY_SECONDS) return -MAX_KEY
+
+        return seconds * 1_000_000_000 + (time.nanosecondsOfSecond - origin.nanosecondsOfSecond)
+    }
+
+    private fun grow() {
+        val capacity = keys.size * 2
+
+        keys = keys.copyOf(capacity)
+        times = times.copyOf(capacity)
+        components = components.copyOf(capacity)
+        priorities = priorities.copyOf(capacity)
+        counters = counters.copyOf(capacity)
+        urgent = urgent.copyOf(capacity)
+        next = next.copyOf(capacity)
+        prev = prev.copyOf(capacity)
+        lists = lists.copyOf(capacity)
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 64
+
+        /** Bound of time keys, corresponds to roughly 73 years. */
+        const val MAX_KEY = 1L shl 61
+        private const val MAX_KEY_SECONDS = MAX_KEY / 1_000_000_000 - 1
+    }
+}
+
+
+/**
+ * Calendar queue event list as described by R. Brown, "Calendar queues: a fast O(1) priority queue implementation
+ * for the simulation event set problem", Communications of the ACM, 1988.
+ *
+ * Events are hashed by time into an array of sorted buckets, each covering an interval of the same width. The
+ * queue is dequeued by walking the buckets like the days of a calendar year. The number of buckets and their width
+ * are adjusted to the queue contents whenever its size doubles or halves.
+ */
+class CalendarEventQueue : EventQueue {
+
+    private val slots = EventSlots()
+
+    private var buckets = Array(MIN_BUCKETS) { SlotList() }
+    private var width = DEFAULT_WIDTH
+
+    // dequeue position, i.e. the bucket and interval in which the last event was found
+    private var positioned = false
+    private var currentBucket = 0
+    private var bucketStart = 0L
+
+    override var size: Int = 0
+        private set
+
+    override fun contains(component: Component) = slots.slotOf(component) != -1
+
+    override fun add(component: Component, time: SimTime, priority: Priority, queueCounter: Int, urgent: Boolean) {
+        val slot = slots.allocate(component, time, priority.value, queueCounter, urgent)
+        val key = slots.keys[slot]
+
+        slots.linkSorted(buckets[bucketOf(key)], slot)
+        size++
+
+        // an event before the current position invalidates the calendar walk
+        if(positioned && key < bucketStart) positioned = false
+
+        if(size > 2 * buckets.size) resize(buckets.size * 2)
+    }
+
+    override fun peekTime(): SimTime = slots.times[locateNext()]!!
+
+    override fun poll(): Component = removeSlot(locateNext())
+
+    override fun remove(component: Component): Boolean {
+        val slot = slots.slotOf(component)
+        if(slot == -1) return false
+
+        removeSlot(slot)
+
+        return true
+    }
+
+    override fun elements(): List<QueueElement> = buildList(size) {
+        buckets.forEach { bucket ->
+            var slot = bucket.head
+            while(slot != -1) {
+                add(slots.element(slot))
+                slot = slots.next(slot)
+            }
+        }
+    }
+
+    private fun removeSlot(slot: Int): Component {
+        slots.unlink(slot)
+        size--
+
+        val component = slots.release(slot)
+
+        if(size < buckets.size / 2 && buckets.size > MIN_BUCKETS) resize(buckets.size / 2)
+
+        return component
+    }
+
+    private fun bucketOf(key: Long) = (Math.floorDiv(key, width) and (buckets.size - 1).toLong()).toInt()
+
+    private fun locateNext(): Int {
+        check(size > 0) { "event queue is empty" }
+
+        if(positioned) {
+            var bucket = currentBucket
+            var start = bucketStart
+
+            for(i in buckets.indices) {
+                val head = buckets[bucket].head
+                if(head != -1 && slots.keys[head] - start < width) {
+                    currentBucket = bucket
+                    bucketStart = start
+                    return head
+                }
+
+                start += width
+                if(start > EventSlots.MAX_KEY) break
+
+                bucket = (bucket + 1) and (buckets.size - 1)
+            }
+        }
+
+        // nothing found within a year, so we search the bucket heads directly
+        var next = -1
+        buckets.forEach {
+            if(it.head != -1 && (next == -1 || slots.less(it.head, next))) next = it.head
+        }
+
+        val key = slots.keys[next]
+        currentBucket = bucketOf(key)
+        bucketStart = Math.floorDiv(key, width) * width
+        positioned = true
+
+        return next
+    }
+
+    private fun resize(numBuckets: Int) {
+        val contents = IntArray(size)
+        var n = 0
+        buckets.forEach { bucket ->
+            var slot = bucket.head
+            while(slot != -1) {
+                contents[n++] = slot
+                slot = slots.next(slot)
+            }
+        }
+
+        contents.forEach { slots.unlink(it) }
+
+        width = estimateWidth(contents)
+        buckets = Array(numBuckets) { SlotList() }
+        contents.forEach { slots.linkSorted(buckets[bucketOf(slots.keys[it])], it) }
+
+        positioned = false
+    }
+
+    /** Estimates the bucket width as three times the average separation of the next events, see Brown (1988).*/
+    private fun estimateWidth(contents: IntArray): Long {
+        // collect the smallest keys, which correspond to the events to be dequeued next
+        val sample = LongArray(minOf(contents.size, WIDTH_SAMPLE_SIZE))
+        var sampled = 0
+        contents.forEach { slot ->
+            val key = slots.keys[slot]
+            if(sampled == sample.size && key >= sample[sampled - 1]) return@forEach
+
+            var i = if(sampled < sample.size) sampled++ else sampled - 1
+            while(i > 0 && sample[i - 1] > key) {
+                sample[i] = sample[i - 1]
+                i--
+            }
+            sample[i] = key
+        }
+
+        if(sampled < 2) return width
+
+        val average = (sample[sampled - 1] - sample[0]) / (sampled - 1)
+
+        // ignore large separations, which would otherwise dominate the estimate
+        var separationSum = 0L
+        var numSeparations = 0
+        for(i in 1 until sampled) {
+            val separation = sample[i] - sample[i - 1]
+            if(separation <= 2 * average) {
+                separationSum += separation
+                numSeparations++
+            }
+        }
+
+        val refined = if(numSeparations > 0) separationSum / numSeparations else average
+
+        return if(refined > 0) minOf(refined, EventSlots.MAX_KEY / 3) * 3 else width
+    }
+
+    companion object {
+        private const val MIN_BUCKETS = 16
+        private const val WIDTH_SAMPLE_SIZE = 25
+        private const val DEFAULT_WIDTH = 1_000_000_000L
+    }
+}
+
+
+/**
+ * Ladder queue event list as described by W.T. Tang, R.S.M. Goh and I.L.-J. Thng, "Ladder queue: An O(1) priority
+ * queue structure for large-scale discrete event simulation", ACM TOMACS, 2005.
+ *
+ * New events far in the future are collected in an unsorted _top_ list. Whenever the sorted _bottom_ list runs
+ * empty, the top list is spread over the buckets of a _rung_. Crowded buckets are split into finer rungs, while
+ * sparse ones are sorted into the bottom list. As opposed to the calendar queue, no resizing is needed.
+ */
+class LadderEventQueue : EventQueue {
+
+    private val slots = EventSlots()
+
+    private val top = SlotList()
+    // events with larger keys than the top limit are put into the top list
+    private var topLimit = Long.MIN_VALUE
+
+    private val bottom = SlotList()
+
+    private var numRungs = 0
+    private val rungStart = LongArray(MAX_RUNGS)
+    private val rungWidth = LongArray(MAX_RUNGS)
+    private val rungSize = IntArray(MAX_RUNGS)
+    private val rungCurrent = IntArray(MAX_RUNGS)
+    private val rungBuckets = arrayOfNulls<Array<SlotList>>(MAX_RUNGS)
+
+    override var size: Int = 0
+        private set
+
+    override fun contains(component: Component) = slots.slotOf(component) != -1
+
+    override fun add(component: Component, time: SimTime, priority: Priority, queueCounter: Int, urgent: Boolean) {
+        val slot = slots.allocate(component, time, priority.value, queueCounter, urgent)
+        val key = slots.keys[slot]
+        size++
+
+        if(key > topLimit || (numRungs == 0 && bottom.size == 0)) {
+            slots.linkLast(top, slot)
+            return
+        }
+
+        for(rung in 0 until numRungs) {
+            val offset = key - rungStart[rung]
+            if(offset >= rungCurrent[rung] * rungWidth[rung]) {
+                slots.linkLast(rungBuckets[rung]!![(offset / rungWidth[rung]).toInt()], slot)
+                return
+            }
+        }
+
+        slots.linkSorted(bottom, slot)
+    }
+
+    override fun peekTime(): SimTime = slots.times[locateNext()]!!
+
+    override fun poll(): Component = removeSlot(locateNext())
+
+    override fun remove(component: Component): Boolean {
+        val slot = slots.slotOf(component)
+        if(slot == -1) return false
+
+        removeSlot(slot)
+
+        return true
+    }
+
+    override fun elements(): List<QueueElement> = buildList(size) {
+        fun collect(list: SlotList) {
+            var slot = list.head
+            while(slot != -1) {
+                add(slots.element(slot))
+                slot = slots.next(slot)
+            }
+        }
+
+        collect(top)
+        collect(bottom)
+        for(rung in 0 until numRungs) rungBuckets[rung]!!.forEach { collect(it) }
+    }
+
+    private fun removeSlot(slot: Int): Component {
+        slots.unlink(slot)
+        size--
+
+        if(size == 0) {
+            numRungs = 0
+            topLimit = Long.MIN_VALUE
+        }
+
+        return slots.release(slot)
+    }
+
+    private fun locateNext(): Int {
+        check(size > 0) { "event queue is empty" }
+
+        if(bottom.size == 0) refillBottom()
+
+        return bottom.head
+    }
+
+    private fun refillBottom() {
+        while(true) {
+            if(numRungs == 0) {
+                if(spreadTop()) return
+                continue
+            }
+
+            val rung = numRungs - 1
+            val buckets = rungBuckets[rung]!!
+
+            var current = rungCurrent[rung]
+            while(current < rungSize[rung] && buckets[current].size == 0) current++
+
+            if(current == rungSize[rung]) {
+                numRungs--
+                continue
+            }
+
+            rungCurrent[rung] = current + 1
+
+            val bucket = buckets[current]
+            if(bucket.size > THRESHOLD && numRungs < MAX_RUNGS && rungWidth[rung] > 1 && !hasUniformKeys(bucket)) {
+                spawnRung(bucket, rungStart[rung] + current * rungWidth[rung], rungWidth[rung])
+                continue
+            }
+
+            slots.transferSorted(bucket, bottom)
+            return
+        }
+    }
+
+    /** Spreads the top list over a new first rung. Returns `true` if the events were sorted into the bottom instead.*/
+    private fun spreadTop(): Boolean {
+        var min = Long.MAX_VALUE
+        var max = Long.MIN_VALUE
+
+        var slot = top.head
+        while(slot != -1) {
+            min = minOf(min, slots.keys[slot])
+            max = maxOf(max, slots.keys[slot])
+            slot = slots.next(slot)
+        }
+
+        topLimit = max
+
+        if(min == max) {
+            slots.transferSorted(top, bottom)
+            return true
+        }
+
+        spawnRung(top, min, max - min + 1)
+
+        return false
+    }
+
+    /** Creates a new rung below the existing ones, which covers `[start, start + span)`. */
+    private fun spawnRung(source: SlotList, start: Long, span: Long) {
+        val rung = numRungs++
+        val numBuckets = minOf(source.size, MAX_BUCKETS)
+        val width = (span + numBuckets - 1) / numBuckets
+
+        rungStart[rung] = start
+        rungWidth[rung] = width
+        rungSize[rung] = numBuckets
+        rungCurrent[rung] = 0
+
+        val buckets = rungBuckets[rung]?.takeIf { it.size >= numBuckets }
+            ?: Array(numBuckets) { SlotList() }.also { rungBuckets[rung] = it }
+
+        var slot = source.head
+        while(slot != -1) {
+            val successor = slots.next(slot)
+            slots.unlink(slot)
+            slots.linkLast(buckets[((slots.keys[slot] - start) / width).toInt()], slot)
+            slot = successor
+        }
+    }
+
+    private fun hasUniformKeys(list: SlotList): Boolean {
+        val key = slots.keys[list.head]
+
+        var slot = list.head
+        while(slot != -1) {
+            if(slots.keys[slot] != key) return false
+            slot = slots.next(slot)
+        }
+
+        return true
+    }
+
+    companion object {
+        private const val MAX_RUNGS = 8
+        private const val THRESHOLD = 50
+        private const val MAX_BUCKETS = 1 shl 16
+    }
+}
@@ -0,0 +1,76 @@
+package org.kalasim
+
+import java.util.*
+
+
+/**
+ * Requesters of a resource bucketed by their requested quantity, which allows honoring requests without scanning
+ * requesters that could not be honored anyway. Within a bucket, requesters are sorted like in the requester queue.
+ *
+ * New requesters are indexed lazily when the resource tries to honor requests. This is needed because the quantity
+ * of a request is only final when all resources of a request have been registered.
+ */
+internal class HonorIndex(private val resource: Resource) {
+
+    private val comparator = PriorityFCFSQueueComparator<Component>()
+
+    private val buckets = TreeMap<Double, TreeSet<CQElement<Component>>>()
+    private val quantities = IdentityHashMap<CQElement<Component>, Double>()
+
+    private val pending = ArrayList<CQElement<Component>>()
+
+    fun add(element: CQElement<Component>) {
+        pending += element
+    }
+
+    fun remove(element: CQElement<Component>) {
+        val quantity = quantities.remove(element) ?: return
+
+        val bucket = buckets[quantity]!!
+        bucket.remove(element)
+        if(bucket.isEmpty()) buckets.remove(quantity)
+    }
+
+    /** Returns the first requester after [previous] in queue order, whose request could be honored right now. */
+    fun nextHonorable(previous: CQElement<Component>?): CQElement<Component>? {
+        indexPending()
+
+        // see Resource.canHonorQuantity
+        val minQuantity = minOf(-(resource.claimed + EPS), 0.0)
+        val maxQuantity = maxOf(resource.capacity - resource.claimed + EPS, 0.0)
+
+        var next: CQElement<Component>? = null
+
+        buckets.subMap(minQuantity, true, maxQuantity, true).values.forEach { bucket ->
+            val candidate = if(previous == null) bucket.first() else bucket.higher(previous)
+
+            if(candidate != null && (next == null || comparator.compare(candidate, next) < 0)) next = candidate
+        }
+
+        return next
+    }
+
+    /** Returns all requesters that could be honored right now, in no particular order. */
+    fun honorable(): List<CQElement<Component>> {
+        indexPending()
+
+        val minQuantity = minOf(-(resource.claimed + EPS), 0.0)
+        val maxQuantity = maxOf(resource.capacity - resource.claimed + EPS, 0.0)
+
+        return buckets.subMap(minQuantity, true, maxQuantity, true).values.flatten()
+    }
+
+    private fun indexPending() {
+        pending.forEach { element ->
+            // skip elements that already left the queue
+            if(element.heapIndex == -1) return@forEach
+
+            val quantity = element.component.requests[resource]?.quantity ?: return@forEach
+
+            quantities[element] = quantity
+            buckets.getOrPut(quantity) { TreeSet(comparator) }.add(element)
+        }
+
+        pending.clear()
+    }
+}
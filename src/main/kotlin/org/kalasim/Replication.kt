@@ -0,0 +1,227 @@
+package org.kalasim
+
+import org.jetbrains.kotlinx.dataframe.DataFrame
+import org.jetbrains.kotlinx.dataframe.api.dataFrameOf
+import org.jetbrains.kotlinx.dataframe.api.toColumn
+import org.jetbrains.kotlinx.dataframe.api.toDataFrame
+import org.kalasim.Defaults.DEFAULT_SEED
+import org.kalasim.analysis.ReplicationStatistics
+import org.kalasim.misc.DependencyContext
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.time.DurationUnit
+
+
+/** The result of a single simulation run executed with [replicate]. */
+data class Replication<T>(val index: Int, val seed: Int, val result: T)
+
+
+/**
+ * Scope of a single replication executed with [replicate]. Its [createSimulation] shadows the top-level variant, so
+ * that simulations created within a replication are seeded with the [seed] of the replication by default.
+ */
+class ReplicationScope internal constructor(val index: Int, val seed: Int) {
+
+    internal val kpis = LinkedHashMap<String, Double>()
+
+    /** Records a KPI of this replication, which is aggregated by [replicateUntilConverged]. */
+    fun record(kpi: String, value: Double) {
+        kpis[kpi] = value
+    }
+
+    /** Records KPIs of this replication, for example those extracted with [ResourceStatistics.kpis]. */
+    fun record(kpis: Map<String, Double>) {
+        this.kpis += kpis
+    }
+
+    fun createSimulation(
+        /** The start time of the simulation model. Defaults to 1970-01-01T00:00:00Z following the convention of kotlin.time.Instant.*/
+        startDate: SimTime = SimTime.fromEpochMilliseconds(0),
+        /** If enabled, it will render a tabular view of recorded interaction, state change and resource events. */
+        enableComponentLogger: Boolean = false,
+        dependencies: KoinModule? = null,
+        /** The duration unit of this environment. Every tick corresponds to a unit duration. See https://www.kalasim.org/basics/#running-a-simulation */
+        tickDurationUnit: DurationUnit = DurationUnit.MINUTES,
+        randomSeed: Int = seed,
+        /** The future event list of the simulation. See [EventQueue] for the available implementations. */
+        eventQueue: EventQueue = BinaryHeapEventQueue(),
+        builder: Environment.() -> Unit,
+    ): Environment = org.kalasim.createSimulation(
+        startDate = startDate,
+        enableComponentLogger = enableComponentLogger,
+        dependencies = dependencies,
+        tickDurationUnit = tickDurationUnit,
+        randomSeed = randomSeed,
+        eventQueue = eventQueue,
+        builder = builder
+    )
+}
+
+
+/**
+ * Runs independent replications of a simulation in parallel. Each replication is executed on a pooled thread, which
+ * is bound to the dependency context of the simulation created by the replication. See https://www.kalasim.org/analysis/#replication
+ *
+ * ```
+ * val waitingTimes = replicate(100) {
+ *     createSimulation {
+ *         dependency { Resource("clerks", capacity = 2) }
+ *         // model definition
+ *         run(10.days)
+ *     }.get<Resource>().statistics.requesters.lengthOfStayStats
+ * }
+ * ```
+ *
+ * @param n The number of replications.
+ * @param seeds The random seeds of the replications, which are used by [ReplicationScope.createSimulation].
+ * @param parallelism The maximum number of replications being executed concurrently.
+ * @param builder Creates and runs a simulation, and extracts its result. To keep memory consumption low, it should
+ *                not return the environment itself but only the metrics of interest.
+ *
+ * @return The replications in the order of their seeds.
+ */
+fun <T> replicate(
+    n: Int,
+    seeds: List<Int> = List(n) { DEFAULT_SEED + it },
+    parallelism: Int = Runtime.getRuntime().availableProcessors(),
+    builder: ReplicationScope.() -> T,
+): List<Replication<T>> {
+    require(seeds.size == n) { "the number of seeds must match the number of replications" }
+    require(parallelism > 0) { "parallelism must be positive" }
+
+    val executor = Executors.newFixedThreadPool(minOf(parallelism, maxOf(n, 1)))
+
+    try {
+        val futures = seeds.mapIndexed { index, seed ->
+            executor.submit(Callable {
+                try {
+                    Replication(index, seed, ReplicationScope(index, seed).builder())
+                } finally {
+                    // do not leak the simulation into the next replication of this thread
+                    DependencyContext.clearKoin()
+                }
+            })
+        }
+
+        return futures.map {
+            try {
+                it.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+    } finally {
+        executor.shutdownAndAwaitTermination()
+    }
+}
+
+
+/**
+ * Runs replications of a simulation in parallel until the confidence intervals of the given [kpis] are sufficiently
+ * narrow. The KPIs recorded by each replication are aggregated as soon as the replication finishes, and new replications
+ * are launched only as long as the target precision has not been reached yet. See https://www.kalasim.org/analysis/#replication
+ *
+ * Replications are aggregated in the order of their index, so the result does not depend on the [parallelism].
+ * Replications still running once the KPIs have converged are awaited before returning, but not aggregated.
+ *
+ * @param relativeHalfWidth The targeted half-width of the confidence intervals relative to the KPI means.
+ * @param kpis The names of the KPIs that must reach the targeted precision.
+ * @param minReplications The number of replications to run at least, to avoid stopping on spuriously narrow intervals.
+ * @param maxReplications The number of replications to run at most, irrespective of the reached precision.
+ * @param seed Provides the random seed of a replication given its index.
+ * @param builder Creates and runs a simulation, and [records][ReplicationScope.record] its KPIs.
+ *
+ * @return The aggregated KPIs of all considered replications.
+ */
+fun replicateUntilConverged(
+    relativeHalfWidth: Double,
+    kpis: Collection<String>,
+    minReplications: Int = 10,
+    maxReplications: Int = 1000,
+    seed: (Int) -> Int = { DEFAULT_SEED + it },
+    parallelism: Int = Runtime.getRuntime().availableProcessors(),
+    statistics: ReplicationStatistics = ReplicationStatistics(),
+    builder: ReplicationScope.() -> Unit,
+): ReplicationStatistics {
+    require(relativeHalfWidth > 0) { "relative half-width must be positive" }
+    require(kpis.isNotEmpty()) { "at least one KPI is required to assess convergence" }
+    require(minReplications in 2..maxReplications) { "minReplications must be within [2, maxReplications]" }
+    require(parallelism > 0) { "parallelism must be positive" }
+
+    val executor = Executors.newFixedThreadPool(minOf(parallelism, maxReplications))
+    val completionService = ExecutorCompletionService<ReplicationScope>(executor)
+
+    try {
+        var launched = 0
+
+        fun launch() {
+            val scope = ReplicationScope(launched, seed(launched++))
+
+            completionService.submit {
+                try {
+                    scope.apply(builder)
+                } finally {
+                    DependencyContext.clearKoin()
+                }
+            }
+        }
+
+        repeat(minOf(parallelism, maxReplications)) { launch() }
+
+        // replications which finished before their predecessors
+        val finished = HashMap<Int, ReplicationScope>()
+        var aggregated = 0
+
+        while (aggregated < launched) {
+            val scope = try {
+                completionService.take().get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+
+            finished[scope.index] = scope
+
+            while (aggregated in finished) {
+                statistics.add(finished.remove(aggregated++)!!.kpis)
+
+                if (aggregated >= minReplications && statistics.hasConverged(kpis, relativeHalfWidth)) {
+                    return statistics
+                }
+            }
+
+            if (launched < maxReplications) launch()
+        }
+
+        return statistics
+    } finally {
+        executor.shutdownAndAwaitTermination()
+    }
+}
+
+
+/**
+ * Cancels the replications which have not started yet, and waits for the running ones. Simulations do not react to
+ * interruption, so returning earlier would leave them running in the background.
+ */
+private fun ExecutorService.shutdownAndAwaitTermination() {
+    shutdownNow()
+    awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+}
+
+
+/**
+ * Collects the results of replications into a data-frame with the columns `replication` and `seed`, followed by a
+ * column per property of the result. Results without properties such as numbers are collected into a `value` column.
+ */
+inline fun <reified T> List<Replication<T>>.toDataFrame(): DataFrame<*> {
+    val results = map { it.result }.toDataFrame().columns()
+        .ifEmpty { listOf(map { it.result }.toColumn("value")) }
+
+    return dataFrameOf(
+        listOf(map { it.index }.toColumn("replication"), map { it.seed }.toColumn("seed")) + results
+    )
+}
@@ -107,6 +107,40 @@ open class DepletableResource(
         claimed = capacity.toDouble() - initialLevel.toDouble()
     }
 
+    // Requesters taking from the resource in the order of the requester queue. Requesters are classified lazily,
+    // because the quantity of a request is only final when all resources of a request have been registered.
+    private val takers = when (honorPolicy) {
+        RequestHonorPolicy.SQF, RequestHonorPolicy.StrictFCFS -> TreeSet(requesters.comparator)
+        else -> null
+    }
+    private val unclassified = ArrayList<CQElement<Component>>()
+
+    override fun addRequester(component: Component, priority: Priority?): CQElement<Component> {
+        val element = super.addRequester(component, priority)
+
+        if (takers != null) unclassified += element
+
+        return element
+    }
+
+    override fun removeRequester(component: Component) {
+        if (takers != null) requesters.elementOf(component)?.let { takers.remove(it) }
+
+        super.removeRequester(component)
+    }
+
+    private fun firstTaker(): Component? {
+        unclassified.forEach { element ->
+            // skip elements that already left the queue
+            if (element.heapIndex == -1) return@forEach
+
+            if (element.component.requests[this]!!.quantity > 0) takers!!.add(element)
+        }
+        unclassified.clear()
+
+        return takers!!.firstOrNull()?.component
+    }
+
 
     override fun canComponentHonorQuantity(component: Component, quantity: Double) = when (honorPolicy) {
         RequestHonorPolicy.RANDOM, RequestHonorPolicy.RelaxedFCFS, is RequestHonorPolicy.WeightedFCFS -> {
@@ -116,11 +150,7 @@ open class DepletableResource(
         RequestHonorPolicy.SQF, RequestHonorPolicy.StrictFCFS -> {
             // note: SQF looks the same as StrictFCFS, but the queue comparator is different
 //            (quantity < 0 || requesters.q.peek().component == component) && canHonorQuantity(quantity)
-            (quantity <= 0 || (requesters.q as PriorityQueue).sortedIterator()
-                .filter { it.component.requests[this]!!.quantity > 0 }
-                .firstOrNull()?.component == component) && canHonorQuantity(
-                quantity
-            )
+            (quantity <= 0 || firstTaker() == component) && canHonorQuantity(quantity)
         }
     }
 }
@@ -129,7 +159,8 @@ class SQFComparator(val resource: Resource) : Comparator<CQElement<Component>> {
     override fun compare(o1: CQElement<Component>, o2: CQElement<Component>): Int = compareValuesBy(
         o1, o2,
         { it.priority?.value?.times(-1) ?: 0 },
-        { it.component.requests[resource]!!.quantity }
+        { it.component.requests[resource]!!.quantity },
+        { it.sequence }
     )
 }
 
@@ -175,6 +206,12 @@ open class Resource(
         envProvider = envProvider
     )
 
+    // only needed for honor policies which may skip requesters
+    private val honorIndex = when (honorPolicy) {
+        RequestHonorPolicy.RelaxedFCFS, is RequestHonorPolicy.WeightedFCFS -> HonorIndex(this)
+        else -> null
+    }
+
     val claimers = ComponentQueue<Component>(
         "claimers of ${this.name}",
         trackingConfig = ComponentCollectionTrackingConfig(trackingConfig.trackClaimers),
@@ -297,19 +334,15 @@ open class Resource(
     internal fun tryRequest() {
         when (honorPolicy) {
             RequestHonorPolicy.RelaxedFCFS -> {
-                // Note: This is an insanely expensive operation, as we need to to build another sorted copy of the requesters queue
-                (requesters.q as PriorityQueue).sortedIterator()
-                    .filter {
-                        // needed to avoid recursion errors when this iterator contains no longer valid request objects
-                        // without 'org.kalasim.test.DepletableHonorPolicyTest.it should allow using a relaxed FCFS' will fail
-                        it.component.requests.containsKey(this)
-                    }
-                    .filter {
-//                            require(it.component.requests.containsKey(this)){ "invalid requester queue state"}
-                        canHonorQuantity(it.component.requests[this]!!.quantity)
-                    }
-                    .takeWhile { it.component.tryRequest() }
-                    .count() // actually trigger otherwise lazy sequence
+                // visit the requesters in queue order, but only those whose request could be honored
+                var previous: CQElement<Component>? = null
+
+                while (true) {
+                    val next = honorIndex!!.nextHonorable(previous) ?: break
+                    if (!next.component.tryRequest()) break
+
+                    previous = next
+                }
             }
 
             RequestHonorPolicy.SQF, RequestHonorPolicy.StrictFCFS, RequestHonorPolicy.RANDOM -> {
@@ -328,26 +361,23 @@ open class Resource(
             }
 
             is RequestHonorPolicy.WeightedFCFS -> {
-                // Note: This is an insanely expensive operation, as we need to resort the requesters queue
-                val sortedWith = requesters.q.toList()
-                    .sortedWith { o1, o2 ->
-                        compareValuesBy(
-                            o1, o2,
-                            { it.priority?.value?.times(-1) ?: 0 },
-                            {
-                                val requestQuantity = it.component.requests[this]!!.quantity
-                                val timeSinceRequest = now - it.enterTime
-
-                                -1 * honorPolicy.computeRequestWeight(timeSinceRequest, requestQuantity)
-                            },
-//                                { it.enterTime }
+                // weights depend on the current time, so we compute them once for all requesters that could be honored
+                val weighted = honorIndex!!.honorable().map {
+                    val requestQuantity = it.component.requests[this]!!.quantity
+                    val timeSinceRequest = now - it.enterTime
+
+                    it to -1 * honorPolicy.computeRequestWeight(timeSinceRequest, requestQuantity)
+                }
+
+                weighted
+                    .sortedWith(
+                        compareBy(
+                            { it.first.priority?.value?.times(-1) ?: 0 },
+                            { it.second },
+                            { it.first.sequence } // honor equal weights in order of arrival
                         )
-                    }
-                @Suppress("ConvertCallChainIntoSequence")
-                sortedWith
-                    .filter { canHonorQuantity(it.component.requests[this]!!.quantity) }
-                    .takeWhile { it.component.tryRequest() }
-                    .count() // actually trigger otherwise lazy sequence
+                    )
+                    .takeWhile { it.first.component.tryRequest() }
             }
         }
     }
@@ -375,7 +405,17 @@ open class Resource(
     }
 
 
-    internal fun removeRequester(component: Component) {
+    internal open fun addRequester(component: Component, priority: Priority?): CQElement<Component> {
+        val element = requesters.enter(component, priority)
+
+        honorIndex?.add(element)
+
+        return element
+    }
+
+    internal open fun removeRequester(component: Component) {
+        honorIndex?.let { index -> requesters.elementOf(component)?.let { index.remove(it) } }
+
         requesters.remove(component)
         if (requesters.isEmpty()) minq = Double.MAX_VALUE
     }
@@ -396,14 +436,6 @@ open class Resource(
 
 }
 
-internal fun <E> PriorityQueue<E>.sortedIterator() = sequence {
-    val pqCopy = PriorityQueue(this@sortedIterator)
-
-    while (pqCopy.isNotEmpty()) {
-        yield(pqCopy.poll())
-    }
-}
-
 //
 // Resource timeline for streamlined analytics
 //
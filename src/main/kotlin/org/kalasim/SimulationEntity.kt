@@ -86,8 +86,9 @@ abstract class SimulationEntity(name: String? = null, val envProvider: EnvProvid
     }
 
 
-    internal fun log(enabled: Boolean, builder: () -> Event) {
-        if(enabled) {
+    /** Publishes the event created by [builder], unless tracking is disabled or no listener consumes such events. */
+    internal inline fun <reified E : Event> log(enabled: Boolean, builder: () -> E) {
+        if(enabled && env.hasListeners(E::class.java)) {
             log(builder())
         }
     }
@@ -0,0 +1,704 @@
+package org.kalasim.analysis
+
+import com.github.holgerbrandl.jsonbuilder.json
+import org.jetbrains.kotlinx.dataframe.DataFrame
+import org.jetbrains.kotlinx.dataframe.api.dataFrameOf
+import org.json.JSONObject
+import org.kalasim.*
+import java.io.Closeable
+import java.io.EOFException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.*
+import kotlin.reflect.KClass
+
+
+/**
+ * Streams all events into a journal file, where they are retained on disk instead of the heap as with the [EventLog].
+ * The journal will be closed when calling [EventJournal.close], which must happen before reading it.
+ *
+ * See [Event Journal](https://www.kalasim.org/events/#event-journal) for details.
+ */
+fun Environment.enableEventJournal(
+    path: Path,
+    blockSize: Int = EventJournal.DEFAULT_BLOCK_SIZE,
+    blackList: List<KClass<*>> = listOf()
+): EventJournal {
+    val journal = EventJournal(path, startDate, blockSize, blackList)
+    addEventListener(journal)
+
+    return journal
+}
+
+
+/**
+ * An event listener which writes events into a compact binary journal. Events are buffered per event type in blocks
+ * of [blockSize] rows, which are written column by column. Entity names and other strings are dictionary-encoded,
+ * and times are stored as nanoseconds relative to the [origin]. The memory required by the journal is thus bounded by
+ * the number of event types and the number of distinct strings, but independent of the number of events.
+ *
+ * Built-in events are stored with their typed fields, while other events are stored with the fields of their
+ * [Event.toJson] representation.
+ *
+ * Use [EventJournalReader] to read the events back.
+ */
+class EventJournal(
+    val path: Path,
+    val origin: SimTime = SimTime.fromEpochMilliseconds(0),
+    val blockSize: Int = DEFAULT_BLOCK_SIZE,
+    val blackList: List<KClass<*>> = listOf()
+) : EventListener, Closeable {
+
+    init {
+        require(blockSize > 0) { "block size must be positive" }
+    }
+
+    private val output = ChannelOutput(FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING))
+
+    private val strings = HashMap<String, Int>()
+
+    private val builtInBlocks = HashMap<Class<out Event>, JournalBlock>()
+    private val jsonBlocks = HashMap<String, JournalBlock>()
+    private val blocks = mutableListOf<JournalBlock>()
+
+    /** The number of events written to the journal so far. */
+    var size = 0L
+        private set
+
+    private var closed = false
+
+    private val blackListFilter = EventTypeFilter(blackList)
+
+    init {
+        output.putInt(JOURNAL_MAGIC)
+        output.putByte(JOURNAL_VERSION)
+        output.putLong(origin.epochSeconds)
+        output.putInt(origin.nanosecondsOfSecond)
+    }
+
+    override fun consume(event: Event) {
+        require(!closed) { "event journal '$path' is closed" }
+        if(blackListFilter.matches(event)) return
+
+        val builtIn = BUILT_IN_COLUMNS[event.javaClass]
+
+        val block = if(builtIn != null) {
+            builtInBlocks.getOrPut(event.javaClass) { newBlock(event.eventType, builtIn.map { it.name to it.kind }) }
+                .also { block -> block.add(size, event.time) { col -> builtIn[col].extract(event) } }
+        } else {
+            val fields = event.toJson().let { json ->
+                json.keySet().filter { it != "time" && it != "eventType" && !(it == "type" && json[it] == event.eventType) }
+                    .sorted()
+                    .map { it to json[it].takeUnless { value -> value == JSONObject.NULL } }
+            }
+
+            val columns = fields.map { (name, value) -> name to kindOf(value) }
+
+            jsonBlocks.getOrPut(event.eventType + columns) { newBlock(event.eventType, columns) }
+                .also { block -> block.add(size, event.time) { col -> fields[col].second } }
+        }
+
+        size++
+
+        if(block.rows == blockSize) writeBlocks(blocks.filter { it.rows > 0 && it.firstSequence <= block.firstSequence })
+    }
+
+    private fun newBlock(type: String, columns: List<Pair<String, ColumnKind>>): JournalBlock {
+        val block = JournalBlock(blocks.size, columns.map { it.second }, blockSize)
+        blocks += block
+
+        output.putByte(RECORD_SCHEMA)
+        output.putVarLong(block.id.toLong())
+        output.putString(type)
+        output.putVarLong(columns.size.toLong())
+        columns.forEach { (name, kind) ->
+            output.putString(name)
+            output.putByte(kind.ordinal)
+        }
+
+        return block
+    }
+
+    private fun stringId(value: String): Int = strings.getOrPut(value) {
+        output.putByte(RECORD_STRING)
+        output.putString(value)
+
+        strings.size
+    }
+
+    // blocks are written in the order of their first event, so that the reader can restore the order of events across
+    // event types while buffering just one block per type
+    private fun writeBlocks(pending: List<JournalBlock>) = pending.sortedBy { it.firstSequence }.forEach { block ->
+        // dictionary entries must precede the blocks referring to them
+        val stringIds = block.kinds.mapIndexed { col, kind ->
+            if(kind != ColumnKind.STRING) null else IntArray(block.rows) { row ->
+                block.values[col][row]?.let { stringId(it.toString()) } ?: -1
+            }
+        }
+
+        output.putByte(RECORD_BLOCK)
+        output.putVarLong(block.id.toLong())
+        output.putVarLong(block.rows.toLong())
+
+        // event numbers and times are increasing, so their deltas are small
+        var lastSequence = -1L
+        var lastTime = 0L
+        for(row in 0 until block.rows) {
+            output.putVarLong(block.sequences[row] - lastSequence)
+            output.putSignedVarLong(block.times[row] - lastTime)
+            lastSequence = block.sequences[row]
+            lastTime = block.times[row]
+        }
+
+        block.kinds.forEachIndexed { col, kind ->
+            val values = block.values[col]
+
+            val hasNulls = (0 until block.rows).any { values[it] == null }
+            output.putByte(if(hasNulls) 1 else 0)
+            if(hasNulls) {
+                for(offset in 0 until block.rows step 8) {
+                    output.putByte((0 until minOf(8, block.rows - offset)).sumOf { bit ->
+                        if(values[offset + bit] == null) 1 shl bit else 0
+                    })
+                }
+            }
+
+            for(row in 0 until block.rows) {
+                val value = values[row] ?: continue
+
+                when(kind) {
+                    ColumnKind.LONG -> output.putSignedVarLong((value as Number).toLong())
+                    ColumnKind.DOUBLE -> output.putDouble((value as Number).toDouble())
+                    ColumnKind.BOOLEAN -> output.putByte(if(value as Boolean) 1 else 0)
+                    ColumnKind.STRING -> output.putVarLong(stringIds[col]!![row].toLong())
+                    ColumnKind.TIME -> output.putSignedVarLong(encodeTime(value as SimTime, origin))
+                }
+            }
+        }
+
+        block.clear()
+    }
+
+    private fun JournalBlock.add(sequence: Long, time: SimTime, value: (Int) -> Any?) {
+        if(rows == 0) firstSequence = sequence
+
+        sequences[rows] = sequence
+        times[rows] = encodeTime(time, origin)
+        for(col in kinds.indices) values[col][rows] = value(col)
+
+        rows++
+    }
+
+    /** Writes all buffered events to the journal file. */
+    fun flush() {
+        require(!closed) { "event journal '$path' is closed" }
+
+        writeBlocks(blocks.filter { it.rows > 0 })
+        output.flush()
+    }
+
+    override fun close() {
+        if(closed) return
+
+        flush()
+        output.close()
+        closed = true
+    }
+
+    companion object {
+        const val DEFAULT_BLOCK_SIZE = 4096
+    }
+}
+
+
+/**
+ * An event read back from an [EventJournal].
+ *
+ * @property journaledType The type of the journaled event.
+ * @property fields The fields of the journaled event, which are either `String`, `Long`, `Double`, `Boolean` or `SimTime`.
+ */
+class JournaledEvent(
+    time: SimTime,
+    val journaledType: String,
+    val fields: Map<String, Any?>
+) : Event(time) {
+
+    operator fun get(field: String) = fields[field]
+
+    override fun toJson(): JSONObject = json {
+        "eventType" to journaledType
+        "time" to time
+    }.apply { fields.forEach { (name, value) -> put(name, value ?: JSONObject.NULL) } }
+}
+
+
+/**
+ * Reads the events of a journal written with an [EventJournal]. Events are streamed from disk, so that journals
+ * exceeding the available memory can be processed.
+ */
+class EventJournalReader(val path: Path) {
+
+    /** The origin of the journaled times. */
+    val origin: SimTime = ChannelInput(FileChannel.open(path, READ)).use { it.readHeader() }
+
+    /**
+     * Streams the journaled events in the order in which they were published into the given [block]. The journal is
+     * closed after the block returns, so the sequence must not be used beyond it (similar to `File.useLines`).
+     */
+    fun <R> useEvents(block: (Sequence<JournaledEvent>) -> R): R =
+        ChannelInput(FileChannel.open(path, READ)).use { input ->
+            input.readHeader()
+
+            val schemas = mutableListOf<JournalSchema>()
+            val strings = mutableListOf<String>()
+
+            val events = sequence {
+                // at most one block per event type is pending, because blocks are written in the order of their first event
+                val pending = mutableListOf<DecodedBlock>()
+                var next = 0L
+
+                while(true) {
+                    val current = pending.firstOrNull { it.sequences[it.position] == next }
+
+                    if(current == null) {
+                        val decoded = input.readBlock(schemas, strings, origin)
+                        if(decoded == null) {
+                            require(pending.isEmpty()) { "event journal '$path' is corrupt" }
+                            break
+                        }
+
+                        pending += decoded
+                        continue
+                    }
+
+                    yield(current.event(current.position))
+
+                    if(++current.position == current.rows) pending -= current
+                    next++
+                }
+            }
+
+            block(events)
+        }
+
+    /**
+     * Reads the events of the given [eventType] into a data-frame with a `time` column and a column per field. This
+     * requires just the events of the given type to fit into memory.
+     */
+    fun toDataFrame(eventType: String): DataFrame<*> = ChannelInput(FileChannel.open(path, READ)).use { input ->
+        input.readHeader()
+
+        val schemas = mutableListOf<JournalSchema>()
+        val strings = mutableListOf<String>()
+
+        val columns = linkedMapOf<String, MutableList<Any?>>("time" to mutableListOf())
+
+        while(true) {
+            val decoded = input.readBlock(schemas, strings, origin) { it.type == eventType } ?: break
+            val rowsBefore = columns.getValue("time").size
+
+            decoded.schema.columns.forEach { (name, _) ->
+                // columns may differ between blocks of events which are journaled with their json fields
+                columns.getOrPut(name) { MutableList(rowsBefore) { null } }
+            }
+
+            for(row in 0 until decoded.rows) {
+                columns.getValue("time") += decoded.times[row]
+                columns.forEach { (name, values) ->
+                    if(name != "time") values += decoded.schema.columnIndex[name]?.let { decoded.values[it][row] }
+                }
+            }
+        }
+
+        dataFrameOf(*columns.map { (name, values) -> name to values }.toTypedArray())
+    }
+}
+
+
+//
+// Journal format
+//
+// A header with the magic number, the format version and the origin of the journaled times is followed by records,
+// which are either
+//  * a string of the dictionary (which is identified by the number of preceding strings),
+//  * a schema with an event type and the names and kinds of its columns (which is identified by an id), or
+//  * a block of events of a schema, with the event numbers and times followed by the values column by column.
+//
+
+private const val JOURNAL_MAGIC = 0x4B4A524E // KJRN
+private const val JOURNAL_VERSION = 1
+
+private const val RECORD_STRING = 1
+private const val RECORD_SCHEMA = 2
+private const val RECORD_BLOCK = 3
+
+private const val NANOS_PER_SECOND = 1_000_000_000L
+
+
+private enum class ColumnKind { LONG, DOUBLE, BOOLEAN, STRING, TIME }
+
+private fun kindOf(value: Any?) = when(value) {
+    is Int, is Long, is Short, is Byte -> ColumnKind.LONG
+    is Number -> ColumnKind.DOUBLE
+    is Boolean -> ColumnKind.BOOLEAN
+    is SimTime -> ColumnKind.TIME
+    else -> ColumnKind.STRING
+}
+
+
+/** Encodes the [time] as nanoseconds relative to the [origin], saturating times beyond the range of ±292 years. */
+private fun encodeTime(time: SimTime, origin: SimTime): Long = try {
+    Math.addExact(
+        Math.multiplyExact(time.epochSeconds - origin.epochSeconds, NANOS_PER_SECOND),
+        (time.nanosecondsOfSecond - origin.nanosecondsOfSecond).toLong()
+    )
+} catch(_: ArithmeticException) {
+    if(time > origin) Long.MAX_VALUE else Long.MIN_VALUE
+}
+
+private fun decodeTime(nanos: Long, origin: SimTime): SimTime = when(nanos) {
+    Long.MAX_VALUE -> SimTime.DISTANT_FUTURE
+    Long.MIN_VALUE -> SimTime.DISTANT_PAST
+    else -> SimTime.fromEpochSeconds(
+        origin.epochSeconds + Math.floorDiv(nanos, NANOS_PER_SECOND),
+        origin.nanosecondsOfSecond + Math.floorMod(nanos, NANOS_PER_SECOND)
+    )
+}
+
+
+private class JournalColumn<E : Event>(val name: String, val kind: ColumnKind, val extract: (E) -> Any?)
+
+private class ColumnsBuilder<E : Event> {
+    val columns = mutableListOf<JournalColumn<E>>()
+
+    fun long(name: String, extract: (E) -> Number?) = columns.add(JournalColumn(name, ColumnKind.LONG, extract))
+    fun double(name: String, extract: (E) -> Double?) = columns.add(JournalColumn(name, ColumnKind.DOUBLE, extract))
+    fun string(name: String, extract: (E) -> Any?) = columns.add(JournalColumn(name, ColumnKind.STRING, extract))
+    fun time(name: String, extract: (E) -> SimTime?) = columns.add(JournalColumn(name, ColumnKind.TIME, extract))
+}
+
+@Suppress("UNCHECKED_CAST")
+private inline fun <reified E : Event> columnsOf(build: ColumnsBuilder<E>.() -> Unit) =
+    E::class.java to ColumnsBuilder<E>().apply(build).columns as List<JournalColumn<Event>>
+
+// the columns of the built-in events, which are journaled without building their json representation
+private val BUILT_IN_COLUMNS: Map<Class<out Event>, List<JournalColumn<Event>>> = mapOf(
+    columnsOf<ResourceEvent> {
+        long("request_id") { it.requestId }
+        string("current") { it.current?.name }
+        string("requester") { it.requester.name }
+        string("resource") { it.resource.name }
+        string("type") { it.type }
+        double("amount") { it.amount }
+        long("priority") { it.priority?.value }
+        string("bumped_by") { it.bumpedBy?.name }
+        double("capacity") { it.capacity }
+        double("claimed") { it.claimed }
+        double("occupancy") { it.occupancy }
+        long("requesters") { it.requesters }
+        long("claimers") { it.claimers }
+    },
+    columnsOf<ResourceActivityEvent> {
+        time("requested") { it.requested }
+        time("honored") { it.honored }
+        string("requester") { it.requester.name }
+        string("resource") { it.resource.name }
+        string("activity") { it.activity }
+        double("quantity") { it.quantity }
+    },
+    columnsOf<InteractionEvent> {
+        string("current") { it.current?.name }
+        string("receiver") { it.component?.name }
+        string("action") { it.action }
+    },
+    columnsOf<StateChangedEvent<*>> {
+        string("current") { it.current?.name }
+        string("state") { it.state.name }
+        string("newValue") { it.newValue }
+        long("trigger") { it.trigger }
+    },
+    columnsOf<EntityCreatedEvent> {
+        string("creator") { it.creator?.name }
+        string("entity") { it.entity.name }
+        string("details") { it.details }
+    },
+    columnsOf<ComponentStateChangeEvent> {
+        string("current") { it.current?.name }
+        string("receiver") { it.component?.name }
+        string("state") { it.state }
+        string("details") { it.action }
+    },
+    columnsOf<RescheduledEvent> {
+        string("current") { it.current?.name }
+        string("receiver") { it.component?.name }
+        time("scheduled_for") { it.scheduledFor }
+        string("type") { it.type }
+        string("description") { it.description }
+    },
+    columnsOf<BulkActivationEvent> {
+        string("current") { it.current?.name }
+        long("components") { it.components.size }
+        time("scheduled_for") { it.scheduledFor }
+    },
+)
+
+
+/** Buffers the events of a schema until they are written, which bounds the memory of the journal. */
+private class JournalBlock(val id: Int, val kinds: List<ColumnKind>, capacity: Int) {
+    val sequences = LongArray(capacity)
+    val times = LongArray(capacity)
+    val values = Array(kinds.size) { arrayOfNulls<Any?>(capacity) }
+
+    var rows = 0
+    var firstSequence = 0L
+
+    fun clear() {
+        values.forEach { it.fill(null, 0, rows) }
+        rows = 0
+    }
+}
+
+
+private class JournalSchema(val type: String, val columns: List<Pair<String, ColumnKind>>) {
+    val columnIndex = columns.withIndex().associate { (index, column) -> column.first to index }
+}
+
+private class DecodedBlock(
+    val schema: JournalSchema,
+    val rows: Int,
+    val sequences: LongArray,
+    val times: List<SimTime>,
+    val values: List<List<Any?>>
+) {
+    var position = 0
+
+    fun event(row: Int) = JournaledEvent(
+        times[row],
+        schema.type,
+        schema.columns.withIndex().associate { (col, column) -> column.first to values[col][row] }
+    )
+}
+
+
+/** Writes primitives through a fixed buffer into a channel. */
+private class ChannelOutput(private val channel: FileChannel) : Closeable {
+
+    private val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+
+    private fun ensure(bytes: Int) {
+        if(buffer.remaining() < bytes) flush()
+    }
+
+    fun putByte(value: Int) {
+        ensure(1)
+        buffer.put(value.toByte())
+    }
+
+    fun putInt(value: Int) {
+        ensure(Int.SIZE_BYTES)
+        buffer.putInt(value)
+    }
+
+    fun putLong(value: Long) {
+        ensure(Long.SIZE_BYTES)
+        buffer.putLong(value)
+    }
+
+    fun putDouble(value: Double) {
+        ensure(Double.SIZE_BYTES)
+        buffer.putDouble(value)
+    }
+
+    fun putVarLong(value: Long) {
+        ensure(MAX_VAR_LONG_BYTES)
+
+        var remaining = value
+        while(remaining and 0x7FL.inv() != 0L) {
+            buffer.put(((remaining and 0x7F) or 0x80).toByte())
+            remaining = remaining ushr 7
+        }
+        buffer.put(remaining.toByte())
+    }
+
+    // zigzag encoding to keep small negative values small
+    fun putSignedVarLong(value: Long) = putVarLong((value shl 1) xor (value shr 63))
+
+    fun putString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        putVarLong(bytes.size.toLong())
+
+        var offset = 0
+        while(offset < bytes.size) {
+            if(!buffer.hasRemaining()) flush()
+
+            val length = minOf(buffer.remaining(), bytes.size - offset)
+            buffer.put(bytes, offset, length)
+            offset += length
+        }
+    }
+
+    fun flush() {
+        buffer.flip()
+        while(buffer.hasRemaining()) channel.write(buffer)
+        buffer.clear()
+    }
+
+    override fun close() {
+        flush()
+        channel.close()
+    }
+}
+
+
+/** Reads primitives through a fixed buffer from a channel. */
+private class ChannelInput(private val channel: FileChannel) : Closeable {
+
+    private val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip()
+
+    /** Ensures that the given number of bytes is buffered, and returns `false` if the channel is exhausted before. */
+    private fun fill(bytes: Int): Boolean {
+        if(buffer.remaining() >= bytes) return true
+
+        buffer.compact()
+        while(buffer.position() < bytes) {
+            if(channel.read(buffer) < 0) break
+        }
+        buffer.flip()
+
+        return buffer.remaining() >= bytes
+    }
+
+    private fun ensure(bytes: Int) {
+        if(!fill(bytes)) throw EOFException("unexpected end of event journal")
+    }
+
+    fun hasMore() = fill(1)
+
+    fun getByte(): Int {
+        ensure(1)
+        return buffer.get().toInt()
+    }
+
+    fun getInt(): Int {
+        ensure(Int.SIZE_BYTES)
+        return buffer.int
+    }
+
+    fun getLong(): Long {
+        ensure(Long.SIZE_BYTES)
+        return buffer.long
+    }
+
+    fun getDouble(): Double {
+        ensure(Double.SIZE_BYTES)
+        return buffer.double
+    }
+
+    fun getVarLong(): Long {
+        var value = 0L
+        var shift = 0
+
+        while(true) {
+            val byte = getByte()
+            value = value or ((byte and 0x7F).toLong() shl shift)
+            if(byte and 0x80 == 0) return value
+            shift += 7
+        }
+    }
+
+    fun getSignedVarLong(): Long = getVarLong().let { (it ushr 1) xor -(it and 1) }
+
+    fun getString(): String {
+        val bytes = ByteArray(getVarLong().toInt())
+
+        var offset = 0
+        while(offset < bytes.size) {
+            ensure(1)
+
+            val length = minOf(buffer.remaining(), bytes.size - offset)
+            buffer.get(bytes, offset, length)
+            offset += length
+        }
+
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    fun readHeader(): SimTime {
+        require(getInt() == JOURNAL_MAGIC) { "not an event journal" }
+        require(getByte() == JOURNAL_VERSION) { "unsupported event journal version" }
+
+        return SimTime.fromEpochSeconds(getLong(), getInt())
+    }
+
+    /**
+     * Reads records until the next block of events with a schema matching the [filter], while collecting the
+     * dictionary and schemas. Returns `null` at the end of the journal.
+     */
+    fun readBlock(
+        schemas: MutableList<JournalSchema>,
+        strings: MutableList<String>,
+        origin: SimTime,
+        filter: (JournalSchema) -> Boolean = { true }
+    ): DecodedBlock? {
+        while(hasMore()) {
+            when(getByte()) {
+                RECORD_STRING -> strings += getString()
+
+                RECORD_SCHEMA -> {
+                    val id = getVarLong().toInt()
+                    val type = getString()
+                    val columns = List(getVarLong().toInt()) { getString() to ColumnKind.entries[getByte()] }
+
+                    check(id == schemas.size) { "event journal is corrupt" }
+                    schemas += JournalSchema(type, columns)
+                }
+
+                RECORD_BLOCK -> {
+                    val schema = schemas[getVarLong().toInt()]
+                    val rows = getVarLong().toInt()
+
+                    val sequences = LongArray(rows)
+                    val times = LongArray(rows)
+                    var lastSequence = -1L
+                    var lastTime = 0L
+                    for(row in 0 until rows) {
+                        lastSequence += getVarLong()
+                        lastTime += getSignedVarLong()
+                        sequences[row] = lastSequence
+                        times[row] = lastTime
+                    }
+
+                    val values = schema.columns.map { (_, kind) ->
+                        val nulls = if(getByte() == 0) null else ByteArray((rows + 7) / 8) { getByte().toByte() }
+
+                        List(rows) { row ->
+                            if(nulls != null && (nulls[row / 8].toInt() shr (row % 8)) and 1 == 1) return@List null
+
+                            when(kind) {
+                                ColumnKind.LONG -> getSignedVarLong()
+                                ColumnKind.DOUBLE -> getDouble()
+                                ColumnKind.BOOLEAN -> getByte() != 0
+                                ColumnKind.STRING -> strings[getVarLong().toInt()]
+                                ColumnKind.TIME -> decodeTime(getSignedVarLong(), origin)
+                            }
+                        }
+                    }
+
+                    if(filter(schema)) {
+                        return DecodedBlock(schema, rows, sequences, times.map { decodeTime(it, origin) }, values)
+                    }
+                }
+
+                else -> throw IllegalStateException("event journal is corrupt")
+            }
+        }
+
+        return null
+    }
+
+    override fun close() = channel.close()
+}
+
+private const val BUFFER_SIZE = 1 shl 16
+private const val MAX_VAR_LONG_BYTES = 10
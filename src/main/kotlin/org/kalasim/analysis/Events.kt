@@ -186,6 +186,27 @@ internal fun asLambda(description: String?): DescriptionFn? {
 }
 
 
+/** An event indicating that several components were activated at once with `Environment.activateAll()`. */
+class BulkActivationEvent(
+    time: SimTime,
+    current: Component?,
+    val components: List<Component>,
+    val scheduledFor: SimTime,
+) : InteractionEvent(time, current) {
+
+    override val action: String
+        get() = "Activated ${components.size} components, scheduled for ${formatWithInf(components.first().env, scheduledFor)}"
+
+    override fun toJson(): JSONObject = json {
+        "eventType" to eventType
+        "time" to time
+        "current" to current?.name
+        "components" to components.size
+        "scheduled_for" to scheduledFor
+    }
+}
+
+
 /** An event indicating that a component process was scheduled for later execution or continuation.
  * See https://www.kalasim.org/component/#lifecycle
  */
@@ -0,0 +1,420 @@
+package org.kalasim.analysis
+
+import org.kalasim.*
+import java.io.Closeable
+import java.io.OutputStream
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.*
+import java.util.zip.GZIPOutputStream
+import kotlin.reflect.KClass
+
+
+/**
+ * Exports all events as [JSON Lines](https://jsonlines.org/) into the given file. The exporter will be closed when
+ * calling [JsonLinesExporter.close], which must happen before reading the file(s).
+ *
+ * See [Event Export](https://www.kalasim.org/events/#json-lines-export) for details.
+ */
+fun Environment.enableJsonLinesExport(
+    path: Path,
+    rotateAfterBytes: Long? = null,
+    compress: Boolean = false,
+    blackList: List<KClass<*>> = listOf()
+): JsonLinesExporter {
+    val exporter = JsonLinesExporter(path, rotateAfterBytes, compress, blackList)
+    addEventListener(exporter)
+
+    return exporter
+}
+
+
+/**
+ * Writes the fields of an event into a json line. Register writers for custom event types with
+ * [JsonLinesExporter.register] to export them without building their [Event.toJson] representation.
+ */
+fun interface EventJsonWriter<E : Event> {
+    fun write(event: E, json: JsonLineWriter)
+}
+
+
+/**
+ * An event listener which writes events as [JSON Lines](https://jsonlines.org/), with a line per event starting with
+ * the `eventType` and the `time` of the event. The built-in events (and events with a [registered][register] writer)
+ * are encoded directly into a reused buffer, while other events are exported with their [Event.toJson]
+ * representation.
+ *
+ * @param rotateAfterBytes If set, the export is continued in a new file as soon as a file contains the given number of
+ *   (uncompressed) bytes. The first file is [path], and the following files are numbered like `events.1.jsonl`,
+ *   `events.2.jsonl` and so on.
+ * @param compress If set, files are gzip-compressed.
+ */
+class JsonLinesExporter(
+    val path: Path,
+    val rotateAfterBytes: Long? = null,
+    val compress: Boolean = false,
+    val blackList: List<KClass<*>> = listOf()
+) : EventListener, Closeable {
+
+    init {
+        require(rotateAfterBytes == null || rotateAfterBytes > 0) { "rotateAfterBytes must be positive" }
+    }
+
+    private val writers = HashMap<Class<out Event>, EventJsonWriter<Event>>(BUILT_IN_WRITERS)
+
+    private val json = JsonLineWriter(::writeBuffer)
+
+    private val _files = mutableListOf<Path>()
+
+    /** The files written so far. */
+    val files: List<Path>
+        get() = _files
+
+    private var output: OutputStream = openFile()
+    private var fileBytes = 0L
+
+    private var closed = false
+
+    private val blackListFilter = EventTypeFilter(blackList)
+
+    /** Registers a [writer] for events of the given type, which replaces the [Event.toJson] representation in the export. */
+    @Suppress("UNCHECKED_CAST")
+    fun <E : Event> register(eventType: Class<E>, writer: EventJsonWriter<E>) {
+        writers[eventType] = writer as EventJsonWriter<Event>
+    }
+
+    /** Registers a [writer] for events of type [E], which replaces the [Event.toJson] representation in the export. */
+    inline fun <reified E : Event> register(writer: EventJsonWriter<E>) = register(E::class.java, writer)
+
+    override fun consume(event: Event) {
+        require(!closed) { "json lines export to '$path' is closed" }
+        if(blackListFilter.matches(event)) return
+
+        val writer = writers[event.javaClass]
+
+        if(writer != null) {
+            json.beginObject()
+            json.field("eventType", event.eventType)
+            json.field("time", event.time)
+            writer.write(event, json)
+            json.endObject()
+        } else {
+            val jsonObject = event.toJson().apply {
+                if(opt("type") == event.eventType) remove("type")
+                put("eventType", event.eventType)
+            }
+
+            json.raw(jsonObject.toString())
+        }
+
+        json.newLine()
+
+        if(rotateAfterBytes != null && fileBytes + json.position >= rotateAfterBytes) rotate()
+    }
+
+    private fun writeBuffer(buffer: ByteArray, length: Int) {
+        output.write(buffer, 0, length)
+        fileBytes += length
+    }
+
+    private fun openFile(): OutputStream {
+        val file = if(_files.isEmpty()) path else path.fileName.toString().let { name ->
+            val stem = name.substringBefore('.')
+            val extension = name.removePrefix(stem)
+
+            path.resolveSibling("$stem.${_files.size}$extension")
+        }
+
+        _files.add(file)
+
+        val stream = Channels.newOutputStream(FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING))
+        return if(compress) GZIPOutputStream(stream, BUFFER_SIZE) else stream
+    }
+
+    private fun rotate() {
+        json.flush()
+        output.close()
+
+        output = openFile()
+        fileBytes = 0
+    }
+
+    /** Writes all buffered lines to the current file. */
+    fun flush() {
+        require(!closed) { "json lines export to '$path' is closed" }
+
+        json.flush()
+        output.flush()
+    }
+
+    override fun close() {
+        if(closed) return
+
+        json.flush()
+        output.close()
+        closed = true
+    }
+}
+
+
+/**
+ * Encodes json objects as UTF-8 into a reused buffer, which is handed to a sink once it is full. Use [field] to add
+ * fields to the current object. `null` values are omitted as in `JSONObject`.
+ */
+class JsonLineWriter internal constructor(private val sink: (ByteArray, Int) -> Unit) {
+
+    private val buffer = ByteArray(BUFFER_SIZE)
+
+    internal var position = 0
+        private set
+
+    private var firstField = true
+
+    private val digits = ByteArray(20)
+
+    private var lastTime: SimTime? = null
+    private var lastTimeBytes = ByteArray(0)
+
+    fun field(name: String, value: String?) {
+        if(value == null) return
+
+        name(name)
+        putString(value)
+    }
+
+    fun field(name: String, value: Int) = field(name, value.toLong())
+
+    fun field(name: String, value: Long) {
+        name(name)
+        putLong(value)
+    }
+
+    /** Adds a number field, where non-finite values are exported as `null` because json does not support them. */
+    fun field(name: String, value: Double) {
+        name(name)
+        putDouble(value)
+    }
+
+    fun field(name: String, value: Boolean) {
+        name(name)
+        putAscii(if(value) "true" else "false")
+    }
+
+    fun field(name: String, value: SimTime?) {
+        if(value == null) return
+
+        name(name)
+
+        // events often share their time, so the formatted time is reused
+        if(value != lastTime) {
+            lastTime = value
+            lastTimeBytes = "\"$value\"".toByteArray(Charsets.US_ASCII)
+        }
+
+        ensure(lastTimeBytes.size)
+        lastTimeBytes.copyInto(buffer, position)
+        position += lastTimeBytes.size
+    }
+
+    /** Adds an arbitrary value as number, boolean or string field depending on its type. */
+    fun field(name: String, value: Any?) = when(value) {
+        null -> Unit
+        is Int, is Long, is Short, is Byte -> field(name, (value as Number).toLong())
+        is Number -> field(name, value.toDouble())
+        is Boolean -> field(name, value)
+        is SimTime -> field(name, value)
+        else -> field(name, value.toString())
+    }
+
+    internal fun beginObject() {
+        putByte('{'.code)
+        firstField = true
+    }
+
+    internal fun endObject() = putByte('}'.code)
+
+    internal fun newLine() = putByte('\n'.code)
+
+    internal fun raw(value: String) = putUtf8(value, escape = false)
+
+    private fun name(name: String) {
+        if(!firstField) putByte(','.code)
+        firstField = false
+
+        putString(name)
+        putByte(':'.code)
+    }
+
+    private fun ensure(bytes: Int) {
+        if(position + bytes > buffer.size) flush()
+    }
+
+    internal fun flush() {
+        if(position == 0) return
+
+        sink(buffer, position)
+        position = 0
+    }
+
+    private fun putByte(value: Int) {
+        ensure(1)
+        buffer[position++] = value.toByte()
+    }
+
+    private fun putAscii(value: String) {
+        ensure(value.length)
+        for(char in value) buffer[position++] = char.code.toByte()
+    }
+
+    private fun putLong(value: Long) {
+        if(value == Long.MIN_VALUE) return putAscii(value.toString())
+
+        var remaining = if(value < 0) -value else value
+        var count = 0
+        do {
+            digits[count++] = ('0'.code + (remaining % 10).toInt()).toByte()
+            remaining /= 10
+        } while(remaining > 0)
+
+        ensure(count + 1)
+        if(value < 0) buffer[position++] = '-'.code.toByte()
+        while(count > 0) buffer[position++] = digits[--count]
+    }
+
+    private fun putDouble(value: Double) = when {
+        !value.isFinite() -> putAscii("null")
+        // whole numbers are formatted without fraction digits as by JSONObject
+        value == Math.rint(value) && value > -MAX_EXACT_DOUBLE && value < MAX_EXACT_DOUBLE -> putLong(value.toLong())
+        else -> putAscii(value.toString())
+    }
+
+    private fun putString(value: String) {
+        putByte('"'.code)
+        putUtf8(value, escape = true)
+        putByte('"'.code)
+    }
+
+    private fun putUtf8(value: String, escape: Boolean) {
+        var index = 0
+
+        while(index < value.length) {
+            val char = value[index++]
+            val code = char.code
+
+            ensure(MAX_CHAR_BYTES)
+
+            when {
+                escape && (char == '"' || char == '\\') -> {
+                    buffer[position++] = '\\'.code.toByte()
+                    buffer[position++] = code.toByte()
+                }
+
+                escape && code < 0x20 -> when(char) {
+                    '\n' -> putAscii("\\n")
+                    '\r' -> putAscii("\\r")
+                    '\t' -> putAscii("\\t")
+                    else -> putAscii("\\u%04x".format(code))
+                }
+
+                code < 0x80 -> buffer[position++] = code.toByte()
+
+                code < 0x800 -> {
+                    buffer[position++] = (0xC0 or (code shr 6)).toByte()
+                    buffer[position++] = (0x80 or (code and 0x3F)).toByte()
+                }
+
+                char.isHighSurrogate() && index < value.length && value[index].isLowSurrogate() -> {
+                    val codePoint = Character.toCodePoint(char, value[index++])
+
+                    buffer[position++] = (0xF0 or (codePoint shr 18)).toByte()
+                    buffer[position++] = (0x80 or ((codePoint shr 12) and 0x3F)).toByte()
+                    buffer[position++] = (0x80 or ((codePoint shr 6) and 0x3F)).toByte()
+                    buffer[position++] = (0x80 or (codePoint and 0x3F)).toByte()
+                }
+
+                // unpaired surrogates are replaced as by String.toByteArray()
+                char.isSurrogate() -> buffer[position++] = '?'.code.toByte()
+
+                else -> {
+                    buffer[position++] = (0xE0 or (code shr 12)).toByte()
+                    buffer[position++] = (0x80 or ((code shr 6) and 0x3F)).toByte()
+                    buffer[position++] = (0x80 or (code and 0x3F)).toByte()
+                }
+            }
+        }
+    }
+}
+
+
+private const val BUFFER_SIZE = 1 shl 16
+private const val MAX_CHAR_BYTES = 6
+private const val MAX_EXACT_DOUBLE = 1E15
+
+
+private inline fun <reified E : Event> writerOf(writer: EventJsonWriter<E>): Pair<Class<out Event>, EventJsonWriter<Event>> {
+    @Suppress("UNCHECKED_CAST")
+    return E::class.java to writer as EventJsonWriter<Event>
+}
+
+// the fields of the built-in events, which correspond to their json representation
+private val BUILT_IN_WRITERS: Map<Class<out Event>, EventJsonWriter<Event>> = mapOf(
+    writerOf<ResourceEvent> { event, json ->
+        json.field("request_id", event.requestId)
+        json.field("current", event.current?.name)
+        json.field("requester", event.requester.name)
+        json.field("resource", event.resource.name)
+        json.field("type", event.type.name)
+        json.field("amount", event.amount)
+        json.field("capacity", event.capacity)
+        json.field("claimed", event.claimed)
+        json.field("occupancy", event.occupancy)
+        json.field("requesters", event.requesters)
+        json.field("claimers", event.claimers)
+    },
+    writerOf<ResourceActivityEvent> { event, json ->
+        json.field("requested", event.requested)
+        json.field("honored", event.honored)
+        json.field("released", event.released)
+        json.field("requester", event.requester.name)
+        json.field("resource", event.resource.name)
+        json.field("activity", event.activity)
+        json.field("quantity", event.quantity)
+    },
+    writerOf<InteractionEvent> { event, json ->
+        json.field("current", event.current?.name)
+        json.field("receiver", event.component?.name)
+        json.field("action", event.action ?: "")
+    },
+    writerOf<StateChangedEvent<*>> { event, json ->
+        json.field("current", event.current?.name)
+        json.field("state", event.state.name)
+        json.field("newValue", event.newValue)
+        event.trigger?.let { json.field("trigger", it) }
+    },
+    writerOf<EntityCreatedEvent> { event, json ->
+        json.field("creator", event.creator?.name)
+        json.field("entity", event.entity.name)
+        json.field("details", event.details)
+    },
+    writerOf<ComponentStateChangeEvent> { event, json ->
+        json.field("current", event.current?.name)
+        json.field("receiver", event.component?.name)
+        json.field("details", event.action ?: "")
+        json.field("state", event.state.name)
+    },
+    writerOf<RescheduledEvent> { event, json ->
+        json.field("current", event.current?.name)
+        json.field("receiver", event.component?.name)
+        json.field("details", event.action)
+        json.field("state", event.state.name)
+    },
+    writerOf<BulkActivationEvent> { event, json ->
+        json.field("current", event.current?.name)
+        json.field("components", event.components.size)
+        json.field("scheduled_for", event.scheduledFor)
+    },
+    writerOf<MetricEvent> { event, json ->
+        json.field("tickWallDurationMs", event.tickWallDurationMs)
+    },
+)
@@ -61,6 +61,20 @@ abstract class Event(
 
 fun interface EventListener {
     fun consume(event: Event)
+
+    /** The type of events consumed by this listener. Other events are not dispatched to it, and are not even created if no other listener consumes them. */
+    val eventType: Class<out Event>
+        get() = Event::class.java
+}
+
+
+/** Tests if events are instances of any of the given [types], with the result being cached per event class. */
+internal class EventTypeFilter(private val types: List<KClass<*>>) {
+    private val matches = HashMap<Class<*>, Boolean>()
+
+    fun matches(event: Event): Boolean = types.isNotEmpty() && matches.getOrPut(event.javaClass) {
+        types.any { it.java.isAssignableFrom(event.javaClass) }
+    }
 }
 
 
@@ -97,8 +111,10 @@ class EventLog(
     MutableList<Event> by events {
 //    val events = mutableListOf<Event>()
 
+    private val blackListFilter = EventTypeFilter(blackList)
+
     override fun consume(event: Event) {
-        if (blackList.any { it.isInstance(event) }) return
+        if (blackListFilter.matches(event)) return
 
         events.add(event)
     }
@@ -118,8 +134,8 @@ class EventLog(
 inline fun <reified E : Event> Environment.collect(crossinline filter: (E) -> Boolean = { true }): List<E> {
     val traces: MutableList<E> = mutableListOf()
 
-    addEventListener {
-        if (it is E && filter(it)) traces.add(it)
+    addEventListener<E> {
+        if (filter(it)) traces.add(it)
     }
 
     return traces
@@ -131,8 +147,8 @@ inline fun <reified E : Event> Environment.collect(crossinline filter: (E) -> Bo
 fun Environment.componentCollector(): List<Component> {
     val components: MutableList<Component> = mutableListOf()
 
-    addEventListener {
-        if (it is EntityCreatedEvent && it.entity is Component) components.add(it.entity)
+    addEventListener<EntityCreatedEvent> {
+        if (it.entity is Component) components.add(it.entity)
     }
 
     return components
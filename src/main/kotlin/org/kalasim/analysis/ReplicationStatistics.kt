@@ -0,0 +1,171 @@
+package org.kalasim.analysis
+
+import com.github.holgerbrandl.jsonbuilder.json
+import org.apache.commons.math3.distribution.TDistribution
+import org.kalasim.QueueStatisticsSnapshot
+import org.kalasim.ResourceStatistics
+import org.kalasim.analysis.snapshot.MetricTimelineSnapshot
+import org.kalasim.misc.Jsonable
+import org.kalasim.misc.P2Quantile
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+
+/**
+ * Running statistics of a single KPI across replications. Mean and variance are updated with Welford's algorithm,
+ * and quantiles are estimated with the P² algorithm, so memory consumption does not depend on the number of replications.
+ */
+class KpiStatistics internal constructor(val name: String, quantiles: List<Double>, val confidenceLevel: Double) :
+    Jsonable() {
+
+    var n = 0L
+        private set
+
+    var mean = Double.NaN
+        private set
+
+    private var m2 = 0.0
+
+    var min = Double.NaN
+        private set
+
+    var max = Double.NaN
+        private set
+
+    private val quantileEstimators = quantiles.map { P2Quantile(it) }
+
+    val variance: Double
+        get() = if(n < 2) Double.NaN else m2 / (n - 1)
+
+    val standardDeviation: Double
+        get() = sqrt(variance)
+
+    /** Half-width of the confidence interval of the [mean] at the [confidenceLevel], based on Student's t-distribution. */
+    val halfWidth: Double
+        get() {
+            if(n < 2) return Double.NaN
+
+            val t = TDistribution(null, n - 1.0).inverseCumulativeProbability(1 - (1 - confidenceLevel) / 2)
+            return t * standardDeviation / sqrt(n.toDouble())
+        }
+
+    /** Half-width of the confidence interval relative to the [mean]. */
+    val relativeHalfWidth: Double
+        get() = when {
+            n < 2 -> Double.NaN
+            halfWidth == 0.0 -> 0.0
+            else -> halfWidth / abs(mean)
+        }
+
+    /** Returns the estimated quantile [p], which must be one of the quantiles tracked by the [ReplicationStatistics]. */
+    fun quantile(p: Double): Double {
+        val estimator = quantileEstimators.find { it.p == p }
+        requireNotNull(estimator) { "quantile $p is not tracked, tracked are ${quantileEstimators.map { it.p }}" }
+
+        return estimator.value
+    }
+
+    internal fun add(value: Double) {
+        n++
+
+        if(n == 1L) {
+            mean = value
+            min = value
+            max = value
+        } else {
+            val delta = value - mean
+            mean += delta / n
+            m2 += delta * (value - mean)
+
+            min = minOf(min, value)
+            max = maxOf(max, value)
+        }
+
+        quantileEstimators.forEach { it.add(value) }
+    }
+
+    override fun toJson() = json {
+        "name" to name
+        "n" to n
+        "mean" to mean
+        "standard_deviation" to standardDeviation
+        "min" to min
+        "max" to max
+        quantileEstimators.forEach { "q${it.p}" to it.value }
+        "half_width" to halfWidth
+    }
+}
+
+
+/**
+ * Aggregates KPIs of many replications as they finish without keeping the individual replications in memory. KPIs are
+ * identified by name, and can be extracted from statistics snapshots with the `kpis()` extensions such as [ResourceStatistics.kpis].
+ *
+ * @param quantiles The quantiles to be estimated for each KPI.
+ * @param confidenceLevel The confidence level of the confidence intervals of the KPI means.
+ */
+class ReplicationStatistics(
+    val quantiles: List<Double> = listOf(0.5),
+    val confidenceLevel: Double = 0.95,
+) : Jsonable() {
+
+    init {
+        require(confidenceLevel > 0 && confidenceLevel < 1) { "confidence level must be within (0, 1)" }
+    }
+
+    private val statistics = LinkedHashMap<String, KpiStatistics>()
+
+    /** The statistics of all KPIs in the order of their first observation. */
+    val kpis: Map<String, KpiStatistics>
+        get() = statistics
+
+    /** The number of replications added so far. */
+    var replications = 0L
+        private set
+
+    operator fun get(kpi: String): KpiStatistics =
+        requireNotNull(statistics[kpi]) { "KPI '$kpi' has not been observed, observed are ${statistics.keys}" }
+
+    /** Adds the KPIs of a finished replication. Undefined values (NaN) are ignored. */
+    fun add(kpis: Map<String, Double>) {
+        replications++
+
+        kpis.forEach { (name, value) ->
+            if(value.isNaN()) return@forEach
+
+            statistics.getOrPut(name) { KpiStatistics(name, quantiles, confidenceLevel) }.add(value)
+        }
+    }
+
+    /** Indicates if the relative half-width of the confidence interval of all given [kpis] is at most [relativeHalfWidth]. */
+    fun hasConverged(kpis: Collection<String>, relativeHalfWidth: Double): Boolean = kpis.all {
+        val kpi = statistics[it] ?: return@all false
+        kpi.n >= 2 && kpi.relativeHalfWidth <= relativeHalfWidth
+    }
+
+    override fun toJson() = json {
+        "replications" to replications
+        statistics.values.forEach { it.name to it.toJson() }
+    }
+}
+
+
+/** Extracts the time-weighted mean and the maximum of a timeline snapshot as KPIs named `<name>.mean` and `<name>.max`. */
+fun MetricTimelineSnapshot<*>.kpis(name: String): Map<String, Double> = mapOf(
+    "$name.mean" to (mean ?: Double.NaN),
+    "$name.max" to (max ?: Double.NaN),
+)
+
+/** Extracts length and length of stay of a queue as KPIs prefixed with the queue [name]. */
+fun QueueStatisticsSnapshot.kpis(name: String = this.name): Map<String, Double> =
+    lengthStats.kpis("$name.length") + mapOf(
+        "$name.lengthOfStay.mean" to lengthOfStayStats.mean,
+        "$name.lengthOfStay.max" to lengthOfStayStats.max,
+    )
+
+/** Extracts occupancy, claimed quantity and the queue statistics of requesters and claimers of a resource as KPIs. */
+fun ResourceStatistics.kpis(name: String = this.name): Map<String, Double> =
+    occupancy.kpis("$name.occupancy") +
+            claimedQuantity.kpis("$name.claimed") +
+            requesters.kpis("$name.requesters") +
+            claimers.kpis("$name.claimers")
@@ -3,16 +3,15 @@ package org.kalasim.analysis.snapshot
 import com.github.holgerbrandl.jsonbuilder.json
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
 import org.apache.commons.math3.stat.descriptive.StatisticalSummary
-import org.apache.commons.math3.stat.descriptive.moment.Mean
-import org.apache.commons.math3.stat.descriptive.moment.Variance
 import org.json.JSONObject
 import org.kalasim.*
 import org.kalasim.misc.*
-import org.kalasim.misc.time.sum
 import org.kalasim.monitors.FrequencyTable
 import org.kalasim.monitors.MetricTimeline
+import org.kalasim.monitors.QuantileSketch
 import kotlin.math.sqrt
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
 
 /** A representation/snapshot of an entities current state. */
 interface EntitySnapshot : WithJson
@@ -105,7 +104,7 @@ class StatisticalSummarySnapshot(internal val ss: StatisticalSummary) : Statisti
     override fun toJson(): JSONObject = ss.toJson()
 
     val median: Double
-        get() = (ss as DescriptiveStatistics).median
+        get() = if(ss is QuantileSketch) ss.quantile(0.5) else (ss as DescriptiveStatistics).median
 }
 
 
@@ -123,36 +122,22 @@ class MetricTimelineSnapshot<V : Number>(nlm: MetricTimeline<V>, excludeZeros: B
     val min: Double?
     val max: Double?
 
-    internal val data = nlm.statsData(excludeZeros)
-
 //    val median :Double = TODO()
 //    val ninetyfivePercentile :Double = TODO()
 //    val ninetyninePercentile :Double = TODO()
 
     init {
-        val doubleValues = data.values.map { it.toDouble() }.toDoubleArray()
-
-        min = doubleValues.minOrNull()
-        max = doubleValues.maxOrNull()
-
-        if(data.durations.any { it.isPositive() }) {
-            val env = nlm.env
-            val durationsArray = data.durations.map {
-                env.asTicks(it)
-            }.toDoubleArray()
-
-            mean = Mean().evaluate(doubleValues, durationsArray)
-            standardDeviation = sqrt(Variance().evaluate(doubleValues, durationsArray))
-//            val median = Median().evaluate(data.values.toDoubleArray(), data.durations) // not supported by commons3
-        } else {
-            // this happens if all there is in total no duration associated once 0s are removed
-            mean = null
-            standardDeviation = null
-        }
-        // weights not supported
-        // mean = Median().evaluate(data.values.toDoubleArray(), data.timepoints.toDoubleArray())
-
-        duration = data.durations.sum()
+        // the moments are maintained by the timeline while values are added, so snapshots do not scan the history
+        val moments = nlm.moments(excludeZeros)
+
+        min = moments.min.takeIf { moments.count > 0 }
+        max = moments.max.takeIf { moments.count > 0 }
+
+        // this is null if there is in total no duration associated once 0s are removed
+        mean = moments.mean
+        standardDeviation = moments.variance(nlm.env.asTicks(1.nanoseconds))?.let { sqrt(it) }
+
+        duration = moments.nanos.nanoseconds
     }
 
     override fun toJson() = json {
@@ -2,6 +2,7 @@ package org.kalasim.animation
 
 import org.kalasim.*
 import org.kalasim.analysis.RescheduledEvent
+import org.kalasim.misc.InternalKalasimApi
 import kotlin.properties.Delegates
 
 
@@ -96,22 +97,21 @@ open class AnimationComponent(
 //    }
 
 
-    private var lastHold = mutableMapOf<String, RescheduledEvent>()
+    private val lastHold = mutableMapOf<String, RescheduledEvent>()
 
-    // note: we could potentially also bypass the event-bus and overload log()
+    val holdTracks = mutableMapOf<String, AnimationHoldMatcher>()
+
+    // reschedules are observed directly instead of via the event bus, so that the bus load does not grow with the
+    // number of animated components
     init {
-        env.addEventListener<RescheduledEvent> { re ->
-            if(re.component != this) return@addEventListener
-
-            holdTracks
-                .filter { (_, matcher) -> matcher(re) }
-                .keys.forEach {
-                    lastHold[it] = re
-                }
+        @OptIn(InternalKalasimApi::class)
+        cmpntPrps.rescheduleListeners.add { re ->
+            holdTracks.forEach { (holdId, matcher) ->
+                if(matcher(re)) lastHold[holdId] = re
+            }
         }
     }
 
-    val holdTracks = mutableMapOf<String, AnimationHoldMatcher>()
     fun registerHoldTracker(query: String, eventMatcher: AnimationHoldMatcher) {
         holdTracks[query] = eventMatcher
     }
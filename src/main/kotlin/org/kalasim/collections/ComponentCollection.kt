@@ -47,7 +47,11 @@ abstract class ComponentCollection<C>(
 
     //    val ass = AggregateSummaryStatistics()
     val sizeTimeline = MetricTimeline("Size of ${this.name}", 0, envProvider = envProvider)
-    val lengthOfStayStatistics = NumericStatisticMonitor("Length of stay in ${this.name}", envProvider = envProvider)
+    val lengthOfStayStatistics = NumericStatisticMonitor(
+        "Length of stay in ${this.name}",
+        envProvider = envProvider,
+        boundedMemory = trackingConfig.boundedLengthOfStayStatistics
+    )
     val capacityTimeline = MetricTimeline("Capacity of ${this.name}", initialValue = capacity, envProvider = envProvider)
 
 
@@ -60,7 +64,7 @@ abstract class ComponentCollection<C>(
 
 
     fun printHistogram() {
-        if(lengthOfStayStatistics.values.size < 2) {
+        if(lengthOfStayStatistics.count < 2) {
             println("Skipping histogram of '$name' because of to few data")
         } else {
             lengthOfStayStatistics.printHistogram()
@@ -10,10 +10,18 @@ import org.kalasim.analysis.InteractionEvent
 import org.kalasim.analysis.snapshot.MetricTimelineSnapshot
 import org.kalasim.analysis.snapshot.QueueSnapshot
 import org.kalasim.misc.*
+import org.kalasim.monitors.QuantileSketch
 import org.koin.core.Koin
 import java.util.*
 
-data class CQElement<C>(val component: C, val enterTime: SimTime, val priority: Priority? = null)
+data class CQElement<C>(val component: C, val enterTime: SimTime, val priority: Priority? = null) {
+    // slot in the backing IndexedPriorityQueue, and the next element of the same component if queued more than once
+    internal var heapIndex: Int = -1
+    internal var nextOfComponent: CQElement<C>? = null
+
+    // insertion order within the queue, which breaks ties of priority and enter time
+    internal var sequence: Long = 0
+}
 
 //fun <C> PriorityFCFSQueueComparator() = compareBy<CQElement<C>>(
 //    { it.priority?.value?.times(-1) ?: 0 },
@@ -22,7 +30,12 @@ data class CQElement<C>(val component: C, val enterTime: SimTime, val priority:
 
 class PriorityFCFSQueueComparator<C> : Comparator<CQElement<C>> {
     override fun compare(o1: CQElement<C>, o2: CQElement<C>): Int =
-        compareValuesBy(o1, o2, { it.priority?.value?.times(-1) ?: DEFAULT_QUEUE_PRIORITY }, { it.enterTime })
+        compareValuesBy(
+            o1, o2,
+            { it.priority?.value?.times(-1) ?: DEFAULT_QUEUE_PRIORITY },
+            { it.enterTime },
+            { it.sequence }
+        )
 }
 
 
@@ -30,13 +43,16 @@ class ComponentQueue<C>(
     name: String? = null,
     val comparator: Comparator<CQElement<C>> = PriorityFCFSQueueComparator(),
     // for queue alternatives see https://docs.oracle.com/javase/tutorial/collections/implementations/queue.html
-    val q: Queue<CQElement<C>> = PriorityQueue(comparator),
+    val q: Queue<CQElement<C>> = IndexedPriorityQueue(comparator),
     capacity: Int = Int.MAX_VALUE,
     envProvider: EnvProvider = DefaultProvider(),
     trackingConfig: ComponentCollectionTrackingConfig = envProvider.getEnv().entityTrackingDefaults.DefaultComponentCollectionConfig,
 ) : ComponentCollection<C>(name, capacity, envProvider, trackingConfig) {
 
 
+    // allows for constant time lookups unless a custom queue implementation is provided
+    private val indexedQ = q as? IndexedPriorityQueue<C>
+
     /** Length of queue timeline. Internally a simple wrapper around `sizeTimeline`.*/
     val queueLengthTimeline
         get() = sizeTimeline
@@ -50,17 +66,27 @@ class ComponentQueue<C>(
     fun asSortedList() = q.toList().sortedWith(comparator)
 
 
+    private var sequenceCounter = 0L
+
     fun add(component: C, priority: Priority? = null): Boolean {
+        enter(component, priority)
+
+        return true
+    }
+
+    /** Adds a component and returns its queue element. */
+    internal fun enter(component: C, priority: Priority? = null): CQElement<C> {
         checkCapacity()
 //        log(component, "Entering $name")
 
-        val added = q.add(CQElement(component, env.now, priority))
+        val element = CQElement(component, env.now, priority).apply { sequence = ++sequenceCounter }
+        q.add(element)
 
         changeListeners.forEach { it.added(component) }
 
         sizeTimeline.addValue(q.size)
 
-        return added
+        return element
     }
 
 
@@ -83,7 +109,7 @@ class ComponentQueue<C>(
     }
 
     fun remove(component: C): C {
-        val cqe = q.first { it.component == component }
+        val cqe = elementOf(component) ?: throw NoSuchElementException("$component is not contained in $name")
         q.remove(cqe)
 
         changeListeners.forEach { it.removed(cqe.component) }
@@ -103,7 +129,10 @@ class ComponentQueue<C>(
         sizeTimeline.addValue(q.size)
     }
 
-    fun contains(c: C): Boolean = q.any { it.component == c }
+    fun contains(c: C): Boolean = indexedQ?.containsComponent(c) ?: q.any { it.component === c }
+
+    internal fun elementOf(c: C): CQElement<C>? =
+        if(indexedQ != null) indexedQ.elementOf(c) else q.firstOrNull { it.component === c }
 
     fun isEmpty() = size == 0
 
@@ -116,7 +145,7 @@ class ComponentQueue<C>(
     // TODO add test coverage
     @Suppress("unused")
     fun updateOrderOf(c: C) {
-        val element = q.find { it.component == c }
+        val element = elementOf(c)
 
         q.remove(element)
         q.add(element)
@@ -130,6 +159,261 @@ class ComponentQueue<C>(
 }
 
 
+/**
+ * Priority queue of [CQElement]s, which tracks the slot of every element and indexes the elements by component.
+ *
+ * It mirrors the algorithms of `java.util.PriorityQueue` exactly, so that elements are iterated and polled in the
+ * same order (including ties and comparator side effects). However, lookups by component are O(1) and removals are
+ * O(log n) instead of O(n).
+ */
+internal class IndexedPriorityQueue<C>(
+    private val comparator: Comparator<in CQElement<C>>
+) : AbstractQueue<CQElement<C>>() {
+
+    private var queue = arrayOfNulls<CQElement<C>>(INITIAL_CAPACITY)
+
+    override var size: Int = 0
+        private set
+
+    // first element of each component, further elements of the same component are chained via `nextOfComponent`.
+    // Keyed by identity, because components may be data classes whose hash code changes while being queued.
+    private val byComponent = IdentityHashMap<C, CQElement<C>>()
+
+    override fun offer(element: CQElement<C>): Boolean {
+        require(element.heapIndex == -1) { "element is already contained in a queue" }
+
+        if(size == queue.size) queue = queue.copyOf(size + if(size < 64) size + 2 else size shr 1)
+
+        val first = byComponent.putIfAbsent(element.component, element)
+        if(first != null) {
+            var last: CQElement<C> = first
+            while(last.nextOfComponent != null) last = last.nextOfComponent!!
+            last.nextOfComponent = element
+        }
+
+        siftUp(queue, size++, element, true)
+
+        return true
+    }
+
+    override fun peek(): CQElement<C>? = queue[0]
+
+    override fun poll(): CQElement<C>? {
+        if(size == 0) return null
+
+        val result = queue[0]!!
+        val last = queue[--size]!!
+        queue[size] = null
+        if(size > 0) siftDown(queue, size, 0, last, true)
+
+        unindex(result)
+
+        return result
+    }
+
+    override fun remove(element: CQElement<C>): Boolean {
+        val index = indexOf(element)
+        if(index == -1) return false
+
+        removeAt(index)
+
+        return true
+    }
+
+    override fun contains(element: CQElement<C>) = indexOf(element) != -1
+
+    fun containsComponent(component: C) = byComponent.containsKey(component)
+
+    /** Returns the element of a component. If queued more than once, the first one in iteration order is returned. */
+    fun elementOf(component: C): CQElement<C>? {
+        var first = byComponent[component] ?: return null
+
+        var other = first.nextOfComponent
+        while(other != null) {
+            if(other.heapIndex < first.heapIndex) first = other
+            other = other.nextOfComponent
+        }
+
+        return first
+    }
+
+    override fun clear() {
+        for(i in 0 until size) {
+            queue[i]!!.apply {
+                heapIndex = -1
+                nextOfComponent = null
+            }
+            queue[i] = null
+        }
+
+        byComponent.clear()
+        size = 0
+    }
+
+    /** Iterates the elements in the order they would be polled without modifying the queue. */
+    fun sortedSequence(): Sequence<CQElement<C>> = sequence {
+        val elements = queue.copyOf(size)
+        var n = size
+
+        while(n > 0) {
+            val result = elements[0]!!
+            val last = elements[--n]!!
+            elements[n] = null
+            if(n > 0) siftDown(elements, n, 0, last, false)
+
+            yield(result)
+        }
+    }
+
+    override fun iterator(): MutableIterator<CQElement<C>> = object : MutableIterator<CQElement<C>> {
+        private var cursor = 0
+        private var lastReturned = -1
+
+        // elements moved from the unvisited to the visited part of the heap by a removal, see java.util.PriorityQueue
+        private var forgetMeNot: java.util.ArrayDeque<CQElement<C>>? = null
+        private var lastReturnedElement: CQElement<C>? = null
+
+        override fun hasNext() = cursor < size || forgetMeNot?.isNotEmpty() == true
+
+        override fun next(): CQElement<C> {
+            if(cursor < size) {
+                lastReturned = cursor++
+                return queue[lastReturned]!!
+            }
+
+            lastReturned = -1
+            lastReturnedElement = forgetMeNot?.poll()
+
+            return lastReturnedElement ?: throw NoSuchElementException()
+        }
+
+        override fun remove() {
+            val element = lastReturnedElement
+
+            when {
+                lastReturned != -1 -> {
+                    val moved = removeAt(lastReturned)
+                    lastReturned = -1
+
+                    if(moved == null) {
+                        cursor--
+                    } else {
+                        (forgetMeNot ?: java.util.ArrayDeque<CQElement<C>>().also { forgetMeNot = it }).add(moved)
+                    }
+                }
+
+                element != null -> {
+                    removeAt(element.heapIndex)
+                    lastReturnedElement = null
+                }
+
+                else -> throw IllegalStateException()
+            }
+        }
+    }
+
+    // java.util.PriorityQueue removes the first equal element in iteration order
+    private fun indexOf(element: CQElement<C>): Int {
+        var index = -1
+
+        var candidate = byComponent[element.component]
+        while(candidate != null) {
+            if(candidate == element && (index == -1 || candidate.heapIndex < index)) index = candidate.heapIndex
+            candidate = candidate.nextOfComponent
+        }
+
+        return index
+    }
+
+    /** Removes the element at the given slot. Returns the last element if it was moved before the slot. */
+    private fun removeAt(index: Int): CQElement<C>? {
+        val removed = queue[index]!!
+        var movedBefore: CQElement<C>? = null
+
+        val last = --size
+        if(last == index) {
+            queue[index] = null
+        } else {
+            val moved = queue[last]!!
+            queue[last] = null
+
+            siftDown(queue, size, index, moved, true)
+            if(queue[index] === moved) {
+                siftUp(queue, index, moved, true)
+                if(queue[index] !== moved) movedBefore = moved
+            }
+        }
+
+        unindex(removed)
+
+        return movedBefore
+    }
+
+    private fun unindex(element: CQElement<C>) {
+        element.heapIndex = -1
+
+        val first = byComponent[element.component]!!
+        if(first === element) {
+            val next = element.nextOfComponent
+            if(next == null) byComponent.remove(element.component) else byComponent[element.component] = next
+        } else {
+            var previous = first
+            while(previous.nextOfComponent !== element) previous = previous.nextOfComponent!!
+            previous.nextOfComponent = element.nextOfComponent
+        }
+
+        element.nextOfComponent = null
+    }
+
+    private fun siftUp(elements: Array<CQElement<C>?>, start: Int, element: CQElement<C>, track: Boolean) {
+        var k = start
+
+        while(k > 0) {
+            val parent = (k - 1) ushr 1
+            val parentElement = elements[parent]!!
+            if(comparator.compare(element, parentElement) >= 0) break
+
+            place(elements, k, parentElement, track)
+            k = parent
+        }
+
+        place(elements, k, element, track)
+    }
+
+    private fun siftDown(elements: Array<CQElement<C>?>, n: Int, start: Int, element: CQElement<C>, track: Boolean) {
+        var k = start
+        val half = n ushr 1
+
+        while(k < half) {
+            var child = (k shl 1) + 1
+            var childElement = elements[child]!!
+
+            val right = child + 1
+            if(right < n && comparator.compare(childElement, elements[right]!!) > 0) {
+                child = right
+                childElement = elements[child]!!
+            }
+
+            if(comparator.compare(element, childElement) <= 0) break
+
+            place(elements, k, childElement, track)
+            k = child
+        }
+
+        place(elements, k, element, track)
+    }
+
+    private fun place(elements: Array<CQElement<C>?>, index: Int, element: CQElement<C>, track: Boolean) {
+        elements[index] = element
+        if(track) element.heapIndex = index
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 11
+    }
+}
+
+
 @Suppress("MemberVisibilityCanBePrivate")
 class QueueStatisticsSnapshot(cq: ComponentQueue<*>) : Jsonable() {
 
@@ -176,6 +460,12 @@ fun StatisticalSummary.toJson(): JSONObject {
             "ninety_pct_quantile" to getPercentile(90.0).roundAny().nanAsNull()
             "ninetyfive_pct_quantile" to getPercentile(95.0).roundAny().nanAsNull()
         }
+
+        if(this@toJson is QuantileSketch) {
+            "median" to quantile(0.5).roundAny().nanAsNull()
+            "ninety_pct_quantile" to quantile(0.9).roundAny().nanAsNull()
+            "ninetyfive_pct_quantile" to quantile(0.95).roundAny().nanAsNull()
+        }
     }
 }
 
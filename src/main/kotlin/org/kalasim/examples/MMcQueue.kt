@@ -33,6 +33,7 @@ open class MMcQueue(
     val mu: Number = 10,
     val durationUnit : DurationUnit = DurationUnit.MINUTES,
     enableInternalMetrics: Boolean = false,
+    val useProcessSteps: Boolean = false,
 
 ) : Environment(tickDurationUnit = durationUnit) {
 
@@ -43,12 +44,13 @@ open class MMcQueue(
 
     val server: Resource
 
-    val componentGenerator: ComponentGenerator<Customer>
+    /** Generates [Customer]s, or [StepCustomer]s if [useProcessSteps] is enabled. */
+    val componentGenerator: ComponentGenerator<out Component>
 
     // disabled because not strictly needed to study the queue parameters
     //    val traces: EventLog = enableEventLog()
 
-   inner class Customer(mu: Number, envProvider: EnvProvider= DefaultProvider()) : Component(envProvider = envProvider) {
+    inner class Customer(mu: Number, envProvider: EnvProvider = DefaultProvider()) : Component(envProvider = envProvider) {
         val ed = exponential(Rate(mu, durationUnit))
 
         override fun process() = sequence {
@@ -58,6 +60,29 @@ open class MMcQueue(
         }
     }
 
+    /** Equivalent to [Customer], but with its process defined as state machine. */
+    inner class StepCustomer(mu: Number, envProvider: EnvProvider = DefaultProvider()) :
+        Component(envProvider = envProvider) {
+        val ed = exponential(Rate(mu, durationUnit))
+
+        override fun processStep(step: Int) = when(step) {
+            0 -> {
+                request(server)
+                1
+            }
+
+            1 -> {
+                hold(ed())
+                2
+            }
+
+            else -> {
+                release(server)
+                PROCESS_END
+            }
+        }
+    }
+
 
     init {
         val rho = lambda.toDouble() / (c.toDouble() * mu.toDouble())
@@ -72,7 +97,11 @@ open class MMcQueue(
         val iat = exponential(Rate(lambda, durationUnit))
 
         componentGenerator = ComponentGenerator(iat, keepHistory = false) {
-            Customer(mu, envProvider = WrappedProvider(this))
+            if(useProcessSteps) {
+                StepCustomer(mu, envProvider = WrappedProvider(this))
+            } else {
+                Customer(mu, envProvider = WrappedProvider(this))
+            }
         }
     }
 }
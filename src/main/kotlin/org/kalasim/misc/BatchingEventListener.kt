@@ -0,0 +1,205 @@
+package org.kalasim.misc
+
+import com.github.holgerbrandl.jsonbuilder.json
+import org.kalasim.Event
+import org.kalasim.EventListener
+import java.io.Closeable
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.thread
+import kotlin.concurrent.withLock
+
+
+/** Defines how a [BatchingEventListener] handles events, if its buffer is full because the consumer is lagging behind. */
+enum class OverflowPolicy {
+    /** Blocks the simulation until the consumer has caught up. No events are lost. */
+    BLOCK,
+
+    /** Discards the oldest buffered event to make room for the new one. */
+    DROP_OLDEST,
+
+    /**
+     * Keeps only every `sampleInterval`-th overflowing event (by discarding the oldest buffered event), and discards
+     * the others, so that the consumer still receives a thinned out stream of the most recent events.
+     */
+    SAMPLE
+}
+
+
+/**
+ * An event listener which hands events of the given [eventType] in batches to a [consumer] running in a separate
+ * thread. Events are buffered in a preallocated ring buffer of the given [capacity], so that a slow consumer can not
+ * exhaust the memory. Instead, the [overflowPolicy] defines how to handle events which do not fit into the buffer.
+ *
+ * Batches are reused, so the consumer must not retain them beyond its invocation. If the consumer fails, the
+ * listener stops and rethrows the failure when consuming the next event.
+ *
+ * The listener must be [closed][close] to deliver the remaining events and to stop its thread.
+ */
+class BatchingEventListener<T : Event>(
+    override val eventType: Class<T>,
+    val capacity: Int = DEFAULT_CAPACITY,
+    val overflowPolicy: OverflowPolicy = OverflowPolicy.BLOCK,
+    val maxBatchSize: Int = DEFAULT_BATCH_SIZE,
+    val sampleInterval: Int = DEFAULT_SAMPLE_INTERVAL,
+    private val consumer: (List<T>) -> Unit
+) : EventListener, Closeable {
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        require(maxBatchSize > 0) { "maxBatchSize must be positive" }
+        require(sampleInterval > 0) { "sampleInterval must be positive" }
+    }
+
+    private val buffer = arrayOfNulls<Event>(capacity)
+
+    // index of the oldest buffered event
+    private var head = 0
+    private var count = 0
+
+    private val lock = ReentrantLock()
+    private val notEmpty = lock.newCondition()
+    private val notFull = lock.newCondition()
+
+    private var closed = false
+    private var overflows = 0L
+
+    @Volatile
+    private var failure: Throwable? = null
+
+    // delivery counters, guarded by the lock
+    private var published = 0L
+    private var delivered = 0L
+    private var dropped = 0L
+    private var maxLag = 0L
+
+    private val lag: Long
+        get() = published - delivered - dropped
+
+    /** A consistent snapshot of the delivery counters, which allows to monitor the consumer. */
+    val statistics: BatchingEventListenerStatistics
+        get() = lock.withLock { BatchingEventListenerStatistics(published, delivered, dropped, lag, maxLag) }
+
+    private val worker = thread(isDaemon = true, name = "kalasim-batching-event-listener") { deliver() }
+
+    override fun consume(event: Event) {
+        if(!eventType.isInstance(event)) return
+
+        lock.withLock {
+            checkFailure()
+            require(!closed) { "event listener is closed" }
+
+            published++
+
+            if(count == capacity) {
+                when(overflowPolicy) {
+                    OverflowPolicy.BLOCK -> while(count == capacity) {
+                        notFull.await()
+                        checkFailure()
+                    }
+
+                    OverflowPolicy.DROP_OLDEST -> dropOldest()
+
+                    OverflowPolicy.SAMPLE -> if(overflows++ % sampleInterval == 0L) dropOldest() else {
+                        dropped++
+                        return
+                    }
+                }
+            }
+
+            buffer[(head + count) % capacity] = event
+            count++
+
+            maxLag = maxOf(maxLag, lag)
+
+            // the consumer is waiting just if the buffer was empty
+            if(count == 1) notEmpty.signal()
+        }
+    }
+
+    private fun checkFailure() = failure?.let { throw IllegalStateException("event consumer failed", it) }
+
+    private fun dropOldest() {
+        buffer[head] = null
+        head = (head + 1) % capacity
+        count--
+        dropped++
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun deliver() {
+        val batch = ArrayList<T>(minOf(maxBatchSize, capacity))
+
+        while(true) {
+            lock.withLock {
+                while(count == 0 && !closed) notEmpty.await()
+                if(count == 0) return
+
+                // the simulation is waiting just if the buffer was full
+                val wasFull = count == capacity
+
+                repeat(minOf(count, maxBatchSize)) {
+                    batch.add(buffer[head] as T)
+                    buffer[head] = null
+                    head = (head + 1) % capacity
+                    count--
+                }
+
+                if(wasFull) notFull.signal()
+            }
+
+            try {
+                consumer(batch)
+            } catch(e: Throwable) {
+                lock.withLock {
+                    failure = e
+                    notFull.signal()
+                }
+
+                return
+            }
+
+            lock.withLock { delivered += batch.size }
+            batch.clear()
+        }
+    }
+
+    /** Stops accepting events, and waits until the buffered events are delivered. */
+    override fun close() {
+        lock.withLock {
+            closed = true
+            notEmpty.signal()
+        }
+
+        worker.join()
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 8192
+        const val DEFAULT_BATCH_SIZE = 256
+        const val DEFAULT_SAMPLE_INTERVAL = 10
+    }
+}
+
+
+/** The delivery counters of a [BatchingEventListener] at the time of the snapshot. */
+class BatchingEventListenerStatistics(
+    /** The number of events consumed from the simulation. */
+    val published: Long,
+    /** The number of events handed to the consumer. */
+    val delivered: Long,
+    /** The number of events discarded because of the overflow policy. */
+    val dropped: Long,
+    /** The number of published events, which were neither delivered nor dropped yet. */
+    val lag: Long,
+    /** The maximum [lag] so far. */
+    val maxLag: Long,
+) : Jsonable() {
+
+    override fun toJson() = json {
+        "published" to published
+        "delivered" to delivered
+        "dropped" to dropped
+        "lag" to lag
+        "max_lag" to maxLag
+    }
+}
@@ -1,5 +1,6 @@
 package org.kalasim.misc
 
+import org.kalasim.Environment
 import org.koin.core.Koin
 import org.koin.dsl.koinApplication
 
@@ -17,6 +18,9 @@ object DependencyContext {
 
     private var threadLocalValue = ThreadLocal<Koin?>()
 
+    // environment of the current context, cached to avoid a koin lookup per simulation entity
+    private val environmentCache = ThreadLocal<Environment?>()
+
 //    private var koin: Koin? = null
 
     fun get(): Koin = threadLocalValue.get() ?: throw MissingDependencyContextException()
@@ -27,9 +31,19 @@ object DependencyContext {
 
     fun invoke(): Koin = get()
 
+    /** Returns the environment of the current context. */
+    internal fun getEnvironment(): Environment {
+        val koin = get()
+
+        environmentCache.get()?.let { if(it.getKoin() === koin) return it }
+
+        return koin.get<Environment>().also { environmentCache.set(it) }
+    }
+
     fun stopKoin() = synchronized(this) {
         get().close()
         threadLocalValue.set(null)
+        environmentCache.remove()
 //        koin = null
     }
 
@@ -38,9 +52,15 @@ object DependencyContext {
         return get()
     }
 
+    internal fun clearKoin() {
+        threadLocalValue.remove()
+        environmentCache.remove()
+    }
+
     // public to enable restoring
     fun setKoin(koin: Koin) {
         threadLocalValue.set(koin)
+        environmentCache.remove()
 //        this.koin = koin
     }
 }
@@ -2,6 +2,10 @@ package org.kalasim.misc
 
 import org.apache.commons.math3.random.EmpiricalDistribution
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
+import org.kalasim.Environment
+import org.kalasim.asTicks
+import org.kalasim.monitors.QuantileSketch
+import org.kalasim.monitors.TimelineHistogramBin
 import kotlin.math.roundToInt
 
 // Extensions to build histograms
@@ -38,6 +42,19 @@ internal fun DescriptiveStatistics.buildHistogram(
     }.let { Histogram(it) }
 }
 
+/** Builds an equal-width histogram from the bucket representatives of a sketch. */
+internal fun QuantileSketch.buildHistogram(binCount: Int = 30): Histogram {
+    val width = (max - min) / binCount
+    val histogram = LongArray(binCount)
+
+    forEachBucket { value, count ->
+        val bin = if(width > 0) ((value - min) / width).toInt().coerceIn(0, binCount - 1) else 0
+        histogram[bin] += count
+    }
+
+    return histogram.mapIndexed { k, count -> HistogramBin(min + k * width, min + (k + 1) * width, count) }
+        .let { Histogram(it) }
+}
 
 // Console backend
 
@@ -59,4 +76,23 @@ internal fun Histogram.printHistogram(colWidth: Double = 40.0) {
     }
 
     println()
-}
\ No newline at end of file
+}
+
+
+internal fun List<TimelineHistogramBin>.printHistogram(env: Environment, colWidth: Double = 40.0) {
+    listOf("bin", "ticks", "pct", "").zip(listOf(17, 7, 4, colWidth.toInt()))
+        .joinToString(" | ") { it.first.padStart(it.second) }
+        .printThis()
+
+    forEach { (lower, upper, duration, fraction) ->
+        val range = "[${JSON_DF.format(lower)}, ${JSON_DF.format(upper)}]"
+
+        val pct = JSON_DF.format(fraction)
+        val stars = "*".repeat((fraction * colWidth).roundToInt()).padEnd(colWidth.roundToInt(), ' ')
+        listOf(range.padEnd(17), JSON_DF.format(env.asTicks(duration)).padStart(7), pct.padStart(4), stars)
+            .joinToString(" | ")
+            .printThis()
+    }
+
+    println()
+}
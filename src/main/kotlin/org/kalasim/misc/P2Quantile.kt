@@ -0,0 +1,85 @@
+package org.kalasim.misc
+
+import kotlin.math.roundToInt
+import kotlin.math.sign
+
+
+/**
+ * Streaming estimator of a single quantile with constant memory, following the P² algorithm of Jain & Chlamtac (1985).
+ * Until five observations have been made, the quantile is computed exactly.
+ */
+internal class P2Quantile(val p: Double) {
+
+    init {
+        require(p in 0.0..1.0) { "quantile must be within [0, 1]" }
+    }
+
+    // marker heights, actual and desired marker positions, and increments of the desired positions
+    private val heights = DoubleArray(5)
+    private val positions = IntArray(5) { it + 1 }
+    private val desired = doubleArrayOf(1.0, 1 + 2 * p, 1 + 4 * p, 3 + 2 * p, 5.0)
+    private val increments = doubleArrayOf(0.0, p / 2, p, (1 + p) / 2, 1.0)
+
+    var count = 0L
+        private set
+
+    fun add(x: Double) {
+        if(count < 5) {
+            heights[count++.toInt()] = x
+            if(count == 5L) heights.sort()
+            return
+        }
+
+        count++
+
+        val cell = when {
+            x < heights[0] -> {
+                heights[0] = x; 0
+            }
+
+            x < heights[1] -> 0
+            x < heights[2] -> 1
+            x < heights[3] -> 2
+            x <= heights[4] -> 3
+            else -> {
+                heights[4] = x; 3
+            }
+        }
+
+        for(i in cell + 1..4) positions[i]++
+        for(i in 0..4) desired[i] += increments[i]
+
+        // adjust the inner markers if they are off their desired positions
+        for(i in 1..3) {
+            val d = desired[i] - positions[i]
+
+            if((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                val step = d.sign.toInt()
+
+                val parabolic = parabolic(i, step)
+                heights[i] = if(heights[i - 1] < parabolic && parabolic < heights[i + 1]) {
+                    parabolic
+                } else {
+                    heights[i] + step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i])
+                }
+
+                positions[i] += step
+            }
+        }
+    }
+
+    private fun parabolic(i: Int, step: Int): Double {
+        val (left, center, right) = Triple(positions[i - 1], positions[i], positions[i + 1])
+
+        return heights[i] + step.toDouble() / (right - left) * (
+                (center - left + step) * (heights[i + 1] - heights[i]) / (right - center) +
+                        (right - center - step) * (heights[i] - heights[i - 1]) / (center - left))
+    }
+
+    val value: Double
+        get() = when(count) {
+            0L -> Double.NaN
+            in 1L..5L -> heights.copyOf(count.toInt()).sorted()[((count - 1) * p).roundToInt()]
+            else -> heights[2]
+        }
+}
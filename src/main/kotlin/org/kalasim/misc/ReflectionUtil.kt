@@ -41,7 +41,8 @@ fun returnsSequenceOfCached(returnType: KType): Boolean {
 
 internal data class OverrideFlags(
     val overridesProcess: Boolean,
-    val overridesRepeated: Boolean
+    val overridesRepeated: Boolean,
+    val overridesProcessStep: Boolean
 )
 
 internal val overrideCacheTL = ThreadLocal.withInitial {
@@ -53,20 +54,20 @@ internal fun overrideFlagsTL(clazz: Class<out Component>): OverrideFlags {
     val cache = overrideCacheTL.get()
     return cache[clazz] ?: run {
 
-        fun declaresNoArg(c: Class<*>, name: String): Boolean =
+        fun declares(c: Class<*>, name: String, vararg parameterTypes: Class<*>): Boolean =
             try {
-                val m = c.getDeclaredMethod(name)
+                val m = c.getDeclaredMethod(name, *parameterTypes)
                 // optional: ignore synthetic/bridge methods if you want
                 !(m.isSynthetic || m.isBridge)
             } catch (_: NoSuchMethodException) {
                 false
             }
 
-        fun findsOverrideInHierarchy(methodName: String): Boolean {
+        fun findsOverrideInHierarchy(methodName: String, vararg parameterTypes: Class<*>): Boolean {
             var c: Class<*>? = clazz
             while (c != null) {
                 if (c == Component::class.java) return false  // base impl doesn't count
-                if (declaresNoArg(c, methodName)) return true // found in subclass chain
+                if (declares(c, methodName, *parameterTypes)) return true // found in subclass chain
                 c = c.superclass
             }
             return false
@@ -75,6 +76,7 @@ internal fun overrideFlagsTL(clazz: Class<out Component>): OverrideFlags {
         val flags = OverrideFlags(
             overridesProcess = findsOverrideInHierarchy("process"),
             overridesRepeated = findsOverrideInHierarchy("repeatedProcess"),
+            overridesProcessStep = findsOverrideInHierarchy("processStep", Int::class.javaPrimitiveType!!),
         )
 
         cache[clazz] = flags
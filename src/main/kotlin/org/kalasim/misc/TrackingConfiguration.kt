@@ -1,5 +1,7 @@
 package org.kalasim.misc
 
+import org.kalasim.monitors.TimelineRetention
+
 
 /** Allows to set tracking defaults for internal metrics and logging.*/
 @Suppress("PropertyName")
@@ -9,6 +11,9 @@ class SimEntityTrackingDefaults() {
     var DefaultResourceConfig = ResourceTrackingConfig()
     var DefaultComponentCollectionConfig = ComponentCollectionTrackingConfig()
 
+    /** Defines how much history timelines retain, unless configured otherwise per timeline (e.g. `MetricTimeline.retention`). */
+    var DefaultTimelineRetention: TimelineRetention = TimelineRetention.Unlimited
+
     fun disableAll() {
         DefaultComponentConfig = ComponentTrackingConfig.NONE
         DefaultStateConfig = StateTrackingConfig.NONE
@@ -108,8 +113,13 @@ data class StateTrackingConfig(
  * Represents a configuration for tracking component collection statistics.
  *
  * @property trackCollectionStatistics Indicates whether to track collection statistics or not.
+ * @property boundedLengthOfStayStatistics Indicates whether to summarize the length of stay in a quantile sketch
+ *           with bounded memory instead of retaining all samples.
  */
-data class ComponentCollectionTrackingConfig(val trackCollectionStatistics: Boolean = true) {
+data class ComponentCollectionTrackingConfig(
+    val trackCollectionStatistics: Boolean = true,
+    val boundedLengthOfStayStatistics: Boolean = false
+) {
 
     companion object {
         val NONE = ComponentCollectionTrackingConfig(false)
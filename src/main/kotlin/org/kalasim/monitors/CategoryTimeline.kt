@@ -6,9 +6,9 @@ import org.kalasim.EnvProvider
 import org.kalasim.SimTime
 import org.kalasim.asSimTime
 import org.kalasim.misc.AmbiguousDuration
-import org.kalasim.misc.time.sum
 import org.kalasim.misc.time.sumOf
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
 import kotlin.time.DurationUnit
 import kotlin.time.Instant
 
@@ -23,11 +23,29 @@ class CategoryTimeline<T>(
     envProvider: EnvProvider = DefaultProvider()
 ) : Monitor<T>(name, envProvider), ValueTimeline<T> {
 
-    private val timestamps = mutableListOf<SimTime>()
-    private val values = ifEnabled { mutableListOf<T>() }
+    // stored in primitive columns, see TimelineColumns.kt
+    private val timestamps = TimeColumn()
+    private val values: MutableList<T> = ifEnabled { CategoryColumn() }
 
     var fixedEnd : SimTime? = null
 
+    // running dwell times in nanoseconds per category in the order of their first positive dwell time, which are
+    // updated as values are added
+    private val dwellNanos = LinkedHashMap<T, Long>()
+    private val observed = HashSet<T>()
+
+    // modifications of the columns reflected by the dwell times
+    private var aggregatedModifications = 0L
+
+    private val modifications
+        get() = timestamps.modifications + (values as CategoryColumn).modifications
+
+    /**
+     * Defines how much history is retained while values are added. Defaults to
+     * `Environment.entityTrackingDefaults.DefaultTimelineRetention`. See [TimelineRetention] for details.
+     */
+    override var retention: TimelineRetention = env.entityTrackingDefaults.DefaultTimelineRetention
+
     init {
         reset(initialValue)
     }
@@ -45,33 +63,98 @@ class CategoryTimeline<T>(
     override fun addValue(value: T) {
         if (!enabled) return
 
-        timestamps.add(getCurrentTime())
+        syncAggregates()
+
+        val now = getCurrentTime()
+        if (timestamps.isNotEmpty()) dwell(values.last(), -timestamps.nanosSince(timestamps.lastIndex, now))
+
+        timestamps.add(now)
         values.add(value)
-    }
 
-    fun getData()= timestamps.zip(values)
+        observed.add(value)
+        aggregatedModifications = modifications
 
-    fun getPct(value: T): Double {
-        val durations = xDuration()
+        applyRetention()
+    }
 
-        val freqHist = durations
-            .zip(values)
-            .groupBy { it.second }
-            .mapValues { (_, values) ->
-                values.map { it.first }.sum()
+    private fun applyRetention() {
+        val window = when (val retention = retention) {
+            TimelineRetention.Unlimited -> return
+
+            is TimelineRetention.LastEntries -> {
+                val expired = values.size - retention.n
+                if (shouldTrim(expired, retention.n)) trimHistory(expired, timestamps[expired])
+                return
             }
 
-        val total = freqHist.values.sum()
+            is TimelineRetention.SlidingWindow -> retention.window
+            // categories can not be aggregated into numeric buckets, so older history is just discarded
+            is TimelineRetention.Downsampled -> retention.window
+        }
+
+        val start = getCurrentTime() - window
+        val expired = timestamps.floorIndex(start)
+
+        if (shouldTrim(expired, values.size - expired)) trimHistory(expired, start)
+    }
+
+    /** Discards the entries before [index] and lets the history start at [time], while preserving the dwell times. */
+    private fun trimHistory(index: Int, time: SimTime) {
+        syncAggregates()
+
+        // the current value is accounted only once it changes, so the duration until the new start must be kept
+        if (index == values.lastIndex) dwell(values[index], -timestamps.nanosSince(index, time))
+
+        timestamps.subList(0, index).clear()
+        values.subList(0, index).clear()
+
+        if (timestamps[0] < time) timestamps[0] = time
+
+        // dwell times continue to cover the discarded history
+        aggregatedModifications = modifications
+    }
 
-        return (freqHist[value] ?: error("Invalid or non-observed state")) / total
+    private fun dwell(value: T, nanos: Long) {
+        if (nanos > 0) dwellNanos[value] = Math.addExact(dwellNanos[value] ?: 0L, nanos)
     }
 
-    private fun xDuration(unit: DurationUnit = DurationUnit.MINUTES): DoubleArray =
-        timestamps.toMutableList()
-            .apply { add(env.now) }
-            .zipWithNext { first, second -> second - first }
-            .map { it.toDouble(unit) }
-            .toDoubleArray()
+    /** Rebuilds the dwell times from the history if the columns were modified without [addValue]. */
+    private fun syncAggregates() {
+        if (aggregatedModifications == modifications) return
+
+        dwellNanos.clear()
+        observed.clear()
+
+        for (index in values.indices) {
+            if (index > 0) dwell(values[index - 1], timestamps.nanosBetween(index - 1, index))
+            observed.add(values[index])
+        }
+
+        aggregatedModifications = modifications
+    }
+
+    /** Returns the dwell times per category including the duration of the current value. */
+    private fun dwellTimes(): Map<T, Long> {
+        require(values.isNotEmpty()) { "data must not be empty when preparing statistics of $name" }
+
+        syncAggregates()
+
+        val current = values.last()
+        val nanos = -timestamps.nanosSince(timestamps.lastIndex, getCurrentTime())
+
+        return LinkedHashMap(dwellNanos).apply {
+            if (nanos > 0) this[current] = Math.addExact(this[current] ?: 0L, nanos)
+        }
+    }
+
+    fun getData()= timestamps.zip(values)
+
+    fun getPct(value: T): Double {
+        val dwellTimes = dwellTimes()
+        if (value !in observed) error("Invalid or non-observed state")
+
+        return (dwellTimes[value] ?: 0L).toDouble() / dwellTimes.values.sum()
+    }
 
 
     @AmbiguousDuration
@@ -88,19 +171,12 @@ class CategoryTimeline<T>(
             "query time must be greater than timeline start (${timestamps.first()})"
         }
 
-        // https://youtrack.jetbrains.com/issue/KT-43776
-        return timestamps.zip(values.toList()).reversed().first { it.first <= time }.second
+        return values[timestamps.floorIndex(time)]
     }
 
 //    operator fun get(time: TickTime) = get(time.value)
 
-    override fun total(value: T): Duration = statsData().run {
-        // https://youtrack.jetbrains.com/issue/KT-43776
-        values.zip(durations)
-            .filter { it.first == value }
-            .map { it.second }
-            .sum()
-    }
+    override fun total(value: T): Duration = (dwellTimes()[value] ?: 0L).nanoseconds
 
     fun printHistogram(values: List<T>? = null, sortByWeight: Boolean = false) {
         println("Summary of: '${name}'")
@@ -178,6 +254,8 @@ class CategoryTimeline<T>(
         require(start == null || start >= timestamps.first()) { "start $start is out of timeline range [${timestamps.first()}, $now}]" }
         require(end == null || end <= now) { "end $end is out of timeline range [${timestamps.first()}, $now}]" }
 
+        if (start == null && end == null) return dwellTimes().mapValues { it.value.nanoseconds }
+
         val statsData = statsData().asList(false)
 
         val queryInterval = (start ?: Instant.DISTANT_PAST)..(end ?: Instant.DISTANT_FUTURE)
@@ -229,15 +307,10 @@ class CategoryTimeline<T>(
     override fun resetToCurrent() = reset(get(now)!!)
 
     override fun clearHistory(before: SimTime) {
-        val startFromIdx = timestamps.withIndex().firstOrNull { before > it.value }?.index ?: return
+        require(before <= getCurrentTime()) { "history can not be cleared beyond the current time" }
 
-        (0 until startFromIdx).forEach {
-            val newTime = timestamps.subList(0, startFromIdx)
-            val newValues = values.subList(0, startFromIdx)
-
-            timestamps.apply { clear(); addAll(newTime) }
-            values.apply { clear(); addAll(newValues) }
-        }
+        val index = timestamps.floorIndex(before)
+        if (index >= 0) trimHistory(index, before)
     }
 
     /**
@@ -8,40 +8,85 @@ import org.kalasim.misc.*
 import org.koin.core.Koin
 import kotlin.math.roundToInt
 
+/**
+ * Collects numeric samples such as the length of stay in a queue.
+ *
+ * @param boundedMemory If enabled, samples are not retained but summarized in [QuantileSketch]es, so that memory
+ * consumption does not grow with the number of samples. Mean and standard deviation remain exact, while quantiles are
+ * estimated within the relative accuracy of the sketch.
+ */
 class NumericStatisticMonitor(
     name: String? = null,
-    envProvider: EnvProvider = DefaultProvider()
+    envProvider: EnvProvider = DefaultProvider(),
+    val boundedMemory: Boolean = false,
 ) :
     Monitor<Number>(name, envProvider), ValueMonitor<Number> {
 
-    private val sumStats = ifEnabled { DescriptiveStatistics() }
+    private val sumStats = ifEnabled { if(boundedMemory) null else DescriptiveStatistics() }
 
+    // sketches of all values and of positive values only
+    private val sketch = ifEnabled { if(boundedMemory) QuantileSketch() else null }
+    private val positiveSketch = ifEnabled { if(boundedMemory) QuantileSketch() else null }
+
+    private var lastValue: Double? = null
+
+    /**
+     * The recorded values. They are not retained if [boundedMemory] is enabled, so accessing them fails in that case.
+     * Use [count] and [sketch] instead, which are available in both modes.
+     */
     val values: DoubleArray
-        get() = sumStats.values
+        get() = requireNotNull(sumStats) { "values of '$name' are not retained in bounded-memory mode" }.values
+
+    /** The number of values added so far. */
+    val count: Long
+        get() = sumStats?.n ?: sketch!!.n
 
     override fun addValue(value: Number) {
         if(!enabled) return
 
-        sumStats.addValue(value.toDouble())
+        val doubleValue = value.toDouble()
+
+        sumStats?.addValue(doubleValue)
+        sketch?.add(doubleValue)
+        if(doubleValue > 0) positiveSketch?.add(doubleValue)
+
+        lastValue = doubleValue
     }
 
     /** Increment the current value by 1 and add it as value. Autostart with 0 if there is no prior value. */
     operator fun inc(): NumericStatisticMonitor {
-        val roundToInt = (values.lastOrNull() ?: 0.0).roundToInt()
+        val roundToInt = (lastValue ?: 0.0).roundToInt()
         addValue((roundToInt + 1).toDouble())
 
         return this
     }
 
     operator fun dec(): NumericStatisticMonitor {
-        val roundToInt = values.last()
+        val roundToInt = requireNotNull(lastValue) { "'$name' must have a value to be decremented" }
         addValue((roundToInt - 1))
 
         return this
     }
 
 
-    override fun reset() = sumStats.clear()
+    override fun reset() {
+        sumStats?.clear()
+        sketch?.clear()
+        positiveSketch?.clear()
+        lastValue = null
+    }
+
+    /**
+     * Returns a sketch of the values, which can be [merged][QuantileSketch.merge] with the sketches of other monitors
+     * or replications.
+     */
+    fun sketch(excludeZeros: Boolean = false): QuantileSketch {
+        (if(excludeZeros) positiveSketch else sketch)?.let { return it.copy() }
+
+        return QuantileSketch().apply {
+            values.forEach { if(!excludeZeros || it > 0) add(it) }
+        }
+    }
 
 
 //    open fun mean(): Double? = sumStats.mean
@@ -69,9 +114,9 @@ class NumericStatisticMonitor(
         println("Summary of: '${name}'")
         statistics().printThis()
 
-        if(values.size > 2) {
+        if(count > 2) {
             println("Histogram of: '${name}'")
-            sumStats.buildHistogram(binCount).printHistogram()
+            (sumStats?.buildHistogram(binCount) ?: sketch!!.buildHistogram(binCount)).printHistogram()
         } else {
             println("Skipping histogram of '$name' because of to few data")
         }
@@ -81,6 +126,8 @@ class NumericStatisticMonitor(
     fun statistics(excludeZeros: Boolean = false, rollingStats: Boolean = false): StatisticalSummarySnapshot {
         require(!rollingStats) { TODO() }
 
+        if(boundedMemory) return StatisticalSummarySnapshot(sketch(excludeZeros))
+
 //        val stats: StatisticalSummary = if(rollingStats) SummaryStatistics() else DescriptiveStatistics()
         val stats = DescriptiveStatistics()
 
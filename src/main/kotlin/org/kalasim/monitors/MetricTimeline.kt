@@ -1,17 +1,14 @@
 package org.kalasim.monitors
 
-import org.apache.commons.math3.distribution.EnumeratedDistribution
 import org.apache.commons.math3.stat.Frequency
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
 import org.kalasim.*
 import org.kalasim.analysis.snapshot.MetricTimelineSnapshot
-import org.kalasim.misc.asCMPairList
-import org.kalasim.misc.buildHistogram
 import org.kalasim.misc.printHistogram
 import org.kalasim.misc.printThis
 import org.kalasim.misc.time.sumOf
 import java.util.*
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
 
 
 /**
@@ -26,11 +23,36 @@ open class MetricTimeline<V : Number>(
     envProvider: EnvProvider = DefaultProvider(),
 ) : Monitor<V>(name, envProvider), ValueTimeline<V> {
 
-    val timestamps = mutableListOf<SimTime>()
-    val values = ifEnabled { mutableListOf<V>() }
+    // stored in primitive columns, see TimelineColumns.kt
+    private val timeColumn = TimeColumn()
+
+    val timestamps: MutableList<SimTime> = timeColumn
+    val values: MutableList<V> = ifEnabled { NumberColumn() }
 
     var fixedEnd : SimTime? = null
 
+    // running aggregates of all values and of positive values only, which are updated as values are added
+    private val allMoments = TimeWeightedMoments()
+    private val positiveMoments = TimeWeightedMoments()
+
+    // modifications of the columns reflected by the aggregates
+    private var aggregatedModifications = 0L
+
+    private val modifications
+        get() = timeColumn.modifications + (values as NumberColumn).modifications
+
+    /**
+     * Defines how much history is retained while values are added. Defaults to
+     * `Environment.entityTrackingDefaults.DefaultTimelineRetention`. See [TimelineRetention] for details.
+     */
+    override var retention: TimelineRetention = env.entityTrackingDefaults.DefaultTimelineRetention
+
+    private val compacted = ArrayList<TimelineBucket>()
+
+    /** The aggregates of the history compacted by a [TimelineRetention.Downsampled] retention in chronological order. */
+    val buckets: List<TimelineBucket>
+        get() = compacted
+
     init {
         addValue(initialValue)
     }
@@ -39,8 +61,146 @@ open class MetricTimeline<V : Number>(
     override fun addValue(value: V) {
         if(!enabled) return
 
-        timestamps.add(getCurrentTime())
+        syncAggregates()
+
+        val now = getCurrentTime()
+        if(timestamps.isNotEmpty()) weigh(values.lastIndex, -timeColumn.nanosSince(timestamps.lastIndex, now))
+
+        timestamps.add(now)
         values.add(value)
+
+        observe(values.lastIndex)
+        aggregatedModifications = modifications
+
+        applyRetention()
+    }
+
+    private fun applyRetention() {
+        when(val retention = retention) {
+            TimelineRetention.Unlimited -> {}
+
+            is TimelineRetention.LastEntries -> {
+                val expired = values.size - retention.n
+                if(shouldTrim(expired, retention.n)) trimHistory(expired, timestamps[expired])
+            }
+
+            is TimelineRetention.SlidingWindow -> {
+                val start = getCurrentTime() - retention.window
+                val expired = timeColumn.floorIndex(start)
+
+                if(shouldTrim(expired, values.size - expired)) trimHistory(expired, start)
+            }
+
+            is TimelineRetention.Downsampled -> {
+                // compact whenever the window has moved past another bucket
+                val origin = env.startDate
+                val intervalNanos = retention.interval.inWholeNanoseconds
+                val steps = Math.floorDiv((getCurrentTime() - retention.window - origin).inWholeNanoseconds, intervalNanos)
+                val until = origin + (steps * intervalNanos).nanoseconds
+
+                if(until > timestamps.first()) {
+                    downsample(until, retention.interval)
+                    trimHistory(timeColumn.floorIndex(until), until)
+                }
+            }
+        }
+    }
+
+    /** Compacts the history before [until] into [buckets] of the given [interval] aligned to the simulation start. */
+    private fun downsample(until: SimTime, interval: Duration) {
+        val origin = env.startDate
+        val intervalNanos = interval.inWholeNanoseconds
+
+        var index = 0
+        var bucketStart = timestamps.first()
+
+        while(bucketStart < until) {
+            val steps = Math.floorDiv((bucketStart - origin).inWholeNanoseconds, intervalNanos) + 1
+            val bucketEnd = minOf(origin + (steps * intervalNanos).nanoseconds, until)
+
+            val moments = TimeWeightedMoments()
+
+            while(true) {
+                val value = doubleValueAt(index)
+                val next = timestamps.getOrNull(index + 1)
+
+                val segment = minOf(next ?: bucketEnd, bucketEnd) - maxOf(timestamps[index], bucketStart)
+
+                // values set before the bucket are considered only if they persist into the bucket
+                if(segment.isPositive() || timestamps[index] >= bucketStart) moments.observe(value)
+                moments.weigh(value, segment.inWholeNanoseconds)
+
+                if(next != null && next < bucketEnd) index++ else break
+            }
+
+            compacted += TimelineBucket(
+                bucketStart, bucketEnd, moments.min, moments.mean!!, moments.max, doubleValueAt(index)
+            )
+
+            bucketStart = bucketEnd
+        }
+    }
+
+    /** Discards the entries before [index] and lets the history start at [time], while preserving the aggregates. */
+    private fun trimHistory(index: Int, time: SimTime) {
+        syncAggregates()
+
+        // the current value is weighed only once it changes, so the duration until the new start must be kept
+        if(index == values.lastIndex) weigh(index, -timeColumn.nanosSince(index, time))
+
+        timestamps.subList(0, index).clear()
+        values.subList(0, index).clear()
+
+        if(timestamps[0] < time) timestamps[0] = time
+
+        // statistics continue to cover the discarded history
+        aggregatedModifications = modifications
+    }
+
+    private fun observe(index: Int) {
+        val value = doubleValueAt(index)
+
+        allMoments.observe(value)
+        if(value > 0) positiveMoments.observe(value)
+    }
+
+    private fun weigh(index: Int, nanos: Long) {
+        val value = doubleValueAt(index)
+
+        allMoments.weigh(value, nanos)
+        if(value > 0) positiveMoments.weigh(value, nanos)
+    }
+
+    /** Rebuilds the aggregates from the history if the columns were modified without [addValue]. */
+    private fun syncAggregates() {
+        if(aggregatedModifications == modifications) return
+
+        allMoments.reset()
+        positiveMoments.reset()
+
+        for(index in values.indices) {
+            if(index > 0) weigh(index - 1, timeColumn.nanosBetween(index - 1, index))
+            observe(index)
+        }
+
+        aggregatedModifications = modifications
+    }
+
+    /**
+     * Returns the time-weighted moments of the values including the duration of the current value. These are
+     * maintained while values are added, so they do not require a pass over the history.
+     */
+    internal fun moments(excludeZeros: Boolean = false): TimeWeightedMoments {
+        require(values.isNotEmpty()) { "data must not be empty when preparing statistics of $name" }
+
+        syncAggregates()
+
+        return (if(excludeZeros) positiveMoments else allMoments).copy().also {
+            val current = doubleValueAt(values.lastIndex)
+            if(!excludeZeros || current > 0) {
+                it.weigh(current, -timeColumn.nanosSince(timestamps.lastIndex, getCurrentTime()))
+            }
+        }
     }
 
 
@@ -54,17 +214,35 @@ open class MetricTimeline<V : Number>(
             "query time must be greater than timeline start (${timestamps.first()})"
         }
 
-        return timestamps.zip(values.toList()).reversed().first { it.first <= time }.second
+        return values[timeColumn.floorIndex(time)]
     }
 
+    /** Returns the index of the last recorded value at or before [time], or -1 if the timeline starts after [time]. */
+    internal fun floorIndex(time: SimTime) = timeColumn.floorIndex(time)
+
+    internal fun doubleValueAt(index: Int): Double = (values as NumberColumn).doubleAt(index)
+
     override operator fun get(time: Number): V {
         val tick2wallTime = get<Environment>().tick2wallTime(TickTime(time.toDouble()))
         return get(tick2wallTime)
     }
 
-    override fun total(value: V): Duration? = statsData().run {
-        // https://youtrack.jetbrains.com/issue/KT-43776
-        values.zip(durations).filter { it.first == value }.sumOf { it.second }
+    override fun total(value: V): Duration? {
+        // single pass over the columns without materializing the durations
+        var nanos = 0L
+
+        for(index in values.indices) {
+            if(values[index] == value) nanos += nanosAt(index)
+        }
+
+        return nanos.nanoseconds
+    }
+
+    /** Returns the nanoseconds the value at [index] persisted, i.e. until the next value or the current time. */
+    internal fun nanosAt(index: Int): Long = if(index < values.lastIndex) {
+        timeColumn.nanosBetween(index, index + 1)
+    } else {
+        -timeColumn.nanosSince(index, getCurrentTime())
     }
 
     @Suppress("UNCHECKED_CAST")
@@ -110,15 +288,11 @@ open class MetricTimeline<V : Number>(
 
     override fun resetToCurrent() = reset(get(now))
 
-    @Suppress("DuplicatedCode")
     override fun clearHistory(before: SimTime) {
-        val startFromIdx = timestamps.withIndex().firstOrNull { before > it.value }?.index ?: return
-
-        val newTime = timestamps.subList(startFromIdx, timestamps.size)
-        val newValues = values.subList(startFromIdx, values.size)
+        require(before <= getCurrentTime()) { "history can not be cleared beyond the current time" }
 
-        timestamps.apply { clear(); addAll(newTime) }
-        values.apply { clear(); addAll(newValues) }
+        val index = timeColumn.floorIndex(before)
+        if(index >= 0) trimHistory(index, before)
     }
 
     fun asDoubleTimeline() = MetricTimeline(name, initialValue.toDouble(), envProvider = envProvider).apply {
@@ -192,7 +366,7 @@ fun <V : Number> MetricTimeline<V>.printHistogram(
         values.forEach { freq.addValue(it as Comparable<*>) }
 
         val colData: Map<Double, Duration> =
-            statistics().data.run {
+            statsData().run {
                 durations.zip(values)
                     .groupBy { (_, value) -> value }
                     .map { kv -> kv.key.toDouble() to kv.value.sumOf { it.first } }
@@ -205,24 +379,7 @@ fun <V : Number> MetricTimeline<V>.printHistogram(
 
         colData.mapValues { env.asTicks(it.value) }.printConsole(sortByWeight = sortByWeight)
     } else {
-
-        // todo make as pretty as in https://www.salabim.org/manual/Monitor.html
-        val hist: List<Pair<Double, Duration>> = statistics().data.run {
-            val aggregatedMonitor: List<Pair<Double, Duration>> =
-                durations.zip(values).groupBy { (_, value) -> value }
-                    .map { kv -> kv.key.toDouble() to kv.value.sumOf { it.first } }
-
-            aggregatedMonitor
-        }
-
-        val pmf = hist.map { it.first to it.second.inWholeSeconds.toDouble() }.asCMPairList()
-
-        val stats =
-            DescriptiveStatistics(
-                EnumeratedDistribution(pmf).sample(1000, arrayOf<Double>()).toDoubleArray()
-            )
-
-        stats.buildHistogram(binCount).printHistogram()
+        histogram(binCount).printHistogram(env)
     }
 }
 
@@ -282,15 +439,10 @@ private fun <V : Number> combineInternal(
     other: MetricTimeline<V>,
     mode: ArithmeticOp
 ): MetricTimeline<Double> {
-    // also see
+    // the result has a step wherever one of the operands has a step, so we merge both sorted step functions
     // https://www.geeksforgeeks.org/merge-two-sorted-linked-lists/
-    // https://stackoverflow.com/questions/1774256/java-code-review-merge-sorted-lists-into-a-single-sorted-list
-    val joinTime = TreeSet<SimTime>().apply { addAll(mt.timestamps); addAll(other.timestamps); add(mt.now) }
-
     val minTime = maxOf(mt.timestamps.first(), other.timestamps.first())
-//    val maxTime = Math.min(mt.timestamps.last(), other.timestamps.last())
     val maxTime = maxOf(mt.timestamps.last(), other.timestamps.last())
-//    val timeRange = minTime..maxTime
 
     val merged = MetricTimeline(
         "'${mt.name}' $mode '${other.name}'",
@@ -301,20 +453,37 @@ private fun <V : Number> combineInternal(
         values.clear()
     }
 
-    joinTime
-        .dropWhile { it < minTime }
-        .takeWhile { it <= maxTime }
-        .forEach { time ->
-            merged.timestamps.add(time)
-            val value = when(mode) {
-                ArithmeticOp.Plus -> mt[time].toDouble() + other[time].toDouble()
-                ArithmeticOp.Minus -> mt[time].toDouble() - other[time].toDouble()
-                ArithmeticOp.Times -> mt[time].toDouble() * other[time].toDouble()
-                ArithmeticOp.Div -> mt[time].toDouble() / other[time].toDouble()
+    // indices of the current step in both operands
+    var mtIndex = mt.floorIndex(minTime)
+    var otherIndex = other.floorIndex(minTime)
+
+    var time = minTime
+
+    while(true) {
+        while(mtIndex + 1 < mt.timestamps.size && mt.timestamps[mtIndex + 1] <= time) mtIndex++
+        while(otherIndex + 1 < other.timestamps.size && other.timestamps[otherIndex + 1] <= time) otherIndex++
+
+        val mtValue = mt.doubleValueAt(mtIndex)
+        val otherValue = other.doubleValueAt(otherIndex)
+
+        merged.timestamps.add(time)
+        merged.values.add(
+            when(mode) {
+                ArithmeticOp.Plus -> mtValue + otherValue
+                ArithmeticOp.Minus -> mtValue - otherValue
+                ArithmeticOp.Times -> mtValue * otherValue
+                ArithmeticOp.Div -> mtValue / otherValue
             }
+        )
 
-            merged.values.add(value)
-        }
+        // advance to the next step of either operand (or the current time)
+        var next = if(mt.now > time) mt.now else SimTime.DISTANT_FUTURE
+        if(mtIndex + 1 < mt.timestamps.size) next = minOf(next, mt.timestamps[mtIndex + 1])
+        if(otherIndex + 1 < other.timestamps.size) next = minOf(next, other.timestamps[otherIndex + 1])
+
+        if(next > maxTime) break
+        time = next
+    }
 
     return merged
 }
@@ -0,0 +1,282 @@
+package org.kalasim.monitors
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary
+import kotlin.math.ceil
+import kotlin.math.ln
+import kotlin.math.pow
+import kotlin.math.sqrt
+
+
+/**
+ * A mergeable summary of a stream of values with bounded memory. Count, mean, variance, min and max are tracked
+ * exactly, while quantiles are estimated from logarithmically sized buckets (following the DDSketch approach of
+ * Masson et al. 2019), so that estimated quantiles are within the [relativeAccuracy] of the true quantiles.
+ *
+ * Adding a value is O(1), and memory is bounded by [maxBuckets] buckets per sign. If the values span a wider range,
+ * the buckets of the smallest magnitudes are collapsed, which affects the accuracy of the lowest quantiles only.
+ *
+ * Sketches with the same accuracy can be [merged][merge], for example to aggregate the length of stay across several
+ * queues or across replications.
+ */
+class QuantileSketch(
+    val relativeAccuracy: Double = DEFAULT_RELATIVE_ACCURACY,
+    val maxBuckets: Int = DEFAULT_MAX_BUCKETS,
+) : StatisticalSummary {
+
+    init {
+        require(relativeAccuracy > 0 && relativeAccuracy < 1) { "relative accuracy must be within (0, 1)" }
+        require(maxBuckets > 0) { "maxBuckets must be positive" }
+    }
+
+    private val gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy)
+    private val multiplier = 1 / ln(gamma)
+
+    private val positives = BucketStore(maxBuckets)
+    private val negatives = BucketStore(maxBuckets)
+    private var zeros = 0L
+
+    private var n = 0L
+    private var mean = Double.NaN
+    private var m2 = 0.0
+    private var sum = 0.0
+    private var min = Double.NaN
+    private var max = Double.NaN
+
+    fun add(value: Double) {
+        n++
+        sum += value
+
+        if(n == 1L) {
+            mean = value
+            min = value
+            max = value
+        } else {
+            val delta = value - mean
+            mean += delta / n
+            m2 += delta * (value - mean)
+
+            min = minOf(min, value)
+            max = maxOf(max, value)
+        }
+
+        when {
+            value > MIN_INDEXABLE -> positives.add(index(value), 1)
+            value < -MIN_INDEXABLE -> negatives.add(index(-value), 1)
+            else -> zeros++
+        }
+    }
+
+    private fun index(value: Double) = ceil(ln(value) * multiplier).toInt()
+
+    private fun valueOf(index: Int) = 2 * gamma.pow(index) / (gamma + 1)
+
+    /** Returns the estimated [quantile], which must be within [0, 1], or `NaN` if the sketch is empty. */
+    fun quantile(quantile: Double): Double {
+        require(quantile in 0.0..1.0) { "quantile must be within [0, 1]" }
+        if(n == 0L) return Double.NaN
+
+        val rank = quantile * (n - 1)
+
+        val estimate = when {
+            rank < negatives.total -> -valueOf(negatives.indexOfRank(negatives.total - 1 - rank))
+            rank < negatives.total + zeros -> 0.0
+            else -> valueOf(positives.indexOfRank(rank - negatives.total - zeros))
+        }
+
+        return estimate.coerceIn(min, max)
+    }
+
+    /** Adds all values summarized by [other] to this sketch. */
+    fun merge(other: QuantileSketch) {
+        require(other.relativeAccuracy == relativeAccuracy) { "sketches of different accuracy can not be merged" }
+        if(other.n == 0L) return
+
+        if(n == 0L) {
+            mean = other.mean
+            m2 = other.m2
+            min = other.min
+            max = other.max
+        } else {
+            // parallel variant of Welford's algorithm by Chan et al.
+            val total = n + other.n
+            val delta = other.mean - mean
+
+            mean += delta * other.n / total
+            m2 += other.m2 + delta * delta * n * other.n / total
+
+            min = minOf(min, other.min)
+            max = maxOf(max, other.max)
+        }
+
+        n += other.n
+        sum += other.sum
+        zeros += other.zeros
+
+        positives.addAll(other.positives)
+        negatives.addAll(other.negatives)
+    }
+
+    fun copy() = QuantileSketch(relativeAccuracy, maxBuckets).also { it.merge(this) }
+
+    fun clear() {
+        positives.clear()
+        negatives.clear()
+        zeros = 0
+
+        n = 0
+        mean = Double.NaN
+        m2 = 0.0
+        sum = 0.0
+        min = Double.NaN
+        max = Double.NaN
+    }
+
+    /** Visits the buckets in ascending order with their representative value and count. */
+    internal fun forEachBucket(action: (value: Double, count: Long) -> Unit) {
+        negatives.forEachDescending { index, count -> action(-valueOf(index), count) }
+        if(zeros > 0) action(0.0, zeros)
+        positives.forEachAscending { index, count -> action(valueOf(index), count) }
+    }
+
+    override fun getN() = n
+
+    override fun getMean() = mean
+
+    override fun getVariance() = when(n) {
+        0L -> Double.NaN
+        1L -> 0.0
+        else -> m2 / (n - 1)
+    }
+
+    override fun getStandardDeviation() = sqrt(variance)
+
+    override fun getMax() = max
+
+    override fun getMin() = min
+
+    override fun getSum() = if(n == 0L) Double.NaN else sum
+
+    companion object {
+        const val DEFAULT_RELATIVE_ACCURACY = 0.01
+        const val DEFAULT_MAX_BUCKETS = 2048
+
+        // smaller magnitudes are counted as zeros
+        private const val MIN_INDEXABLE = 1E-9
+    }
+}
+
+
+/** Merges sketches, for example of several monitors or of several replications, into a new sketch. */
+fun List<QuantileSketch>.merge(): QuantileSketch {
+    require(isNotEmpty()) { "at least one sketch is required" }
+
+    return first().copy().also { merged -> drop(1).forEach { merged.merge(it) } }
+}
+
+
+/**
+ * Counts per bucket index in a dense array which covers the range of non-empty buckets. If the range would exceed
+ * [maxBuckets], the lowest buckets are collapsed into the lowest bucket of the permitted range.
+ */
+private class BucketStore(val maxBuckets: Int) {
+
+    private var counts = LongArray(0)
+
+    // bucket index of counts[0]
+    private var offset = 0
+
+    private var minIndex = 0
+    private var maxIndex = 0
+
+    var total = 0L
+        private set
+
+    fun add(index: Int, count: Long) {
+        var target = index
+
+        if(total == 0L) {
+            minIndex = index
+            maxIndex = index
+        } else if(index > maxIndex) {
+            val lowest = index - maxBuckets + 1
+
+            if(lowest > minIndex) {
+                // collapse the buckets below the permitted range into its lowest bucket
+                var collapsed = 0L
+                for(i in minIndex until minOf(lowest, maxIndex + 1)) {
+                    collapsed += counts[i - offset]
+                    counts[i - offset] = 0
+                }
+
+                minIndex = lowest
+                maxIndex = index
+                ensureCapacity()
+                counts[lowest - offset] += collapsed
+            } else {
+                maxIndex = index
+            }
+        } else if(index < minIndex) {
+            target = maxOf(index, maxIndex - maxBuckets + 1)
+            minIndex = target
+        }
+
+        ensureCapacity()
+        counts[target - offset] += count
+        total += count
+    }
+
+    fun addAll(other: BucketStore) = other.forEachAscending { index, count -> add(index, count) }
+
+    private fun ensureCapacity() {
+        if(minIndex >= offset && maxIndex < offset + counts.size) return
+
+        val range = maxIndex - minIndex + 1
+        val size = minOf(maxOf(range + range / 2, 16), maxBuckets)
+        val newOffset = minIndex - (size - range) / 2
+
+        val resized = LongArray(size)
+
+        // copy the buckets of the previous range which are still within the new range
+        for(i in maxOf(offset, newOffset) until minOf(offset + counts.size, newOffset + size)) {
+            resized[i - newOffset] = counts[i - offset]
+        }
+
+        counts = resized
+        offset = newOffset
+    }
+
+    /** Returns the index of the bucket which contains the value of the given zero-based [rank]. */
+    fun indexOfRank(rank: Double): Int {
+        var cumulated = 0L
+
+        for(index in minIndex..maxIndex) {
+            cumulated += counts[index - offset]
+            if(cumulated > rank) return index
+        }
+
+        return maxIndex
+    }
+
+    fun forEachAscending(action: (index: Int, count: Long) -> Unit) {
+        if(total == 0L) return
+
+        for(index in minIndex..maxIndex) {
+            val count = counts[index - offset]
+            if(count > 0) action(index, count)
+        }
+    }
+
+    fun forEachDescending(action: (index: Int, count: Long) -> Unit) {
+        if(total == 0L) return
+
+        for(index in maxIndex downTo minIndex) {
+            val count = counts[index - offset]
+            if(count > 0) action(index, count)
+        }
+    }
+
+    fun clear() {
+        counts = LongArray(0)
+        total = 0
+    }
+}
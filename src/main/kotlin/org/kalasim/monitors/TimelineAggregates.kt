@@ -0,0 +1,75 @@
+package org.kalasim.monitors
+
+
+/**
+ * Running time-weighted moments of the values of a timeline. The mean and the sum of squared deviations are updated
+ * with West's weighted variant of Welford's algorithm, using the durations of the values as weights, which is
+ * numerically more robust than summing up squares.
+ */
+internal class TimeWeightedMoments {
+
+    /** The number of observed values including those without duration. */
+    var count = 0L
+        private set
+
+    var min = Double.NaN
+        private set
+
+    var max = Double.NaN
+        private set
+
+    /** The summed durations of all weighed values in nanoseconds. */
+    var nanos = 0L
+        private set
+
+    private var weightedMean = 0.0
+    private var m2 = 0.0
+
+    /** The time-weighted mean or `null` if there is no duration associated to any value yet. */
+    val mean: Double?
+        get() = if(nanos > 0) weightedMean else null
+
+    fun observe(value: Double) {
+        min = if(count == 0L) value else minOf(min, value)
+        max = if(count == 0L) value else maxOf(max, value)
+        count++
+    }
+
+    fun weigh(value: Double, duration: Long) {
+        if(duration <= 0) return
+
+        nanos = Math.addExact(nanos, duration)
+
+        val delta = value - weightedMean
+        weightedMean += delta * duration / nanos
+        m2 += duration * delta * (value - weightedMean)
+    }
+
+    /**
+     * Returns the bias-corrected variance with the weights expressed in ticks (like commons-math's weighted `Variance`),
+     * or `null` if there is no duration associated to any value yet.
+     */
+    fun variance(ticksPerNanosecond: Double): Double? = when {
+        nanos == 0L -> null
+        count == 1L -> 0.0
+        else -> ticksPerNanosecond * m2 / (ticksPerNanosecond * nanos - 1)
+    }
+
+    fun reset() {
+        count = 0
+        min = Double.NaN
+        max = Double.NaN
+        nanos = 0
+        weightedMean = 0.0
+        m2 = 0.0
+    }
+
+    fun copy() = TimeWeightedMoments().also {
+        it.count = count
+        it.min = min
+        it.max = max
+        it.nanos = nanos
+        it.weightedMean = weightedMean
+        it.m2 = m2
+    }
+}
@@ -0,0 +1,364 @@
+package org.kalasim.monitors
+
+import org.kalasim.SimTime
+
+
+// Columnar storage of timelines. The columns are exposed as regular mutable lists, but keep their data in primitive
+// arrays, so that recording a value does not allocate.
+
+private const val INITIAL_CAPACITY = 16
+
+private fun grownCapacity(current: Int, required: Int) = maxOf(required, current + (current shr 1), INITIAL_CAPACITY)
+
+
+/**
+ * Time stamps stored as nanoseconds relative to the (whole) epoch second of the first time stamp. This supports
+ * timelines spanning up to 292 years.
+ */
+internal class TimeColumn : AbstractMutableList<SimTime>(), RandomAccess {
+
+    private var originSeconds = 0L
+    private var nanos = LongArray(0)
+
+    override var size = 0
+        private set
+
+    /** Counts all modifications including replaced elements, so that derived aggregates can detect changes. */
+    var modifications = 0L
+        private set
+
+    private fun encode(time: SimTime): Long {
+        if(size == 0) originSeconds = time.epochSeconds
+
+        return Math.addExact(
+            Math.multiplyExact(time.epochSeconds - originSeconds, NANOS_PER_SECOND),
+            time.nanosecondsOfSecond.toLong()
+        )
+    }
+
+    private fun decode(offset: Long): SimTime = SimTime.fromEpochSeconds(
+        originSeconds + Math.floorDiv(offset, NANOS_PER_SECOND),
+        Math.floorMod(offset, NANOS_PER_SECOND)
+    )
+
+    /** Returns the nanoseconds of the time stamp at [index] relative to [origin] without creating the time stamp. */
+    fun nanosSince(index: Int, origin: SimTime): Long {
+        checkIndex(index)
+
+        val seconds = originSeconds - origin.epochSeconds
+        return seconds * NANOS_PER_SECOND + nanos[index] - origin.nanosecondsOfSecond
+    }
+
+    /** Returns the nanoseconds elapsed between the time stamps at [from] and [to]. */
+    fun nanosBetween(from: Int, to: Int): Long {
+        checkIndex(from)
+        checkIndex(to)
+
+        return nanos[to] - nanos[from]
+    }
+
+    override fun get(index: Int): SimTime {
+        checkIndex(index)
+        return decode(nanos[index])
+    }
+
+    /**
+     * Returns the index of the last time stamp at or before [time] or -1 if there is none. Requires the time stamps to
+     * be sorted.
+     */
+    fun floorIndex(time: SimTime): Int {
+        if(size == 0) return -1
+
+        val seconds = time.epochSeconds - originSeconds
+        val key = when {
+            seconds > MAX_SECONDS -> Long.MAX_VALUE
+            seconds < -MAX_SECONDS -> Long.MIN_VALUE
+            else -> seconds * NANOS_PER_SECOND + time.nanosecondsOfSecond
+        }
+
+        // upper bound search to pick the last of several equal time stamps
+        var low = 0
+        var high = size
+        while(low < high) {
+            val mid = (low + high) ushr 1
+            if(nanos[mid] <= key) low = mid + 1 else high = mid
+        }
+
+        return low - 1
+    }
+
+    override fun set(index: Int, element: SimTime): SimTime {
+        val previous = get(index)
+        nanos[index] = encode(element)
+        modifications++
+        return previous
+    }
+
+    override fun add(index: Int, element: SimTime) {
+        if(index < 0 || index > size) throw IndexOutOfBoundsException("index: $index, size: $size")
+
+        val encoded = encode(element)
+        if(size == nanos.size) nanos = nanos.copyOf(grownCapacity(nanos.size, size + 1))
+
+        nanos.copyInto(nanos, index + 1, index, size)
+        nanos[index] = encoded
+        size++
+        modCount++
+        modifications++
+    }
+
+    override fun removeAt(index: Int): SimTime {
+        val removed = get(index)
+
+        nanos.copyInto(nanos, index, index + 1, size)
+        size--
+        modCount++
+        modifications++
+
+        return removed
+    }
+
+    // shift once instead of removing elements one by one, which makes subList(...).clear() O(n)
+    override fun removeRange(fromIndex: Int, toIndex: Int) {
+        nanos.copyInto(nanos, fromIndex, toIndex, size)
+        size -= toIndex - fromIndex
+        modCount++
+        modifications++
+    }
+
+    override fun clear() {
+        size = 0
+        modCount++
+        modifications++
+    }
+
+    private fun checkIndex(index: Int) {
+        if(index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+    }
+
+    companion object {
+        private const val NANOS_PER_SECOND = 1_000_000_000L
+        private const val MAX_SECONDS = Long.MAX_VALUE / NANOS_PER_SECOND - 1
+    }
+}
+
+
+/**
+ * Numbers stored in a primitive array, as long as all numbers share the type of the first number and are either
+ * `Int`, `Long` or `Double`. Otherwise, the column falls back to boxed storage.
+ */
+internal class NumberColumn<V : Number> : AbstractMutableList<V>(), RandomAccess {
+
+    private enum class Kind { INT, LONG, DOUBLE }
+
+    private var kind: Kind? = null
+
+    private var longs = LongArray(0)
+    private var doubles = DoubleArray(0)
+    private var boxed: ArrayList<V>? = null
+
+    private var primitiveSize = 0
+
+    override val size: Int
+        get() = boxed?.size ?: primitiveSize
+
+    /** Counts all modifications including replaced elements, so that derived aggregates can detect changes. */
+    var modifications = 0L
+        private set
+
+    private fun kindOf(value: Number) = when(value) {
+        is Int -> Kind.INT
+        is Long -> Kind.LONG
+        is Double -> Kind.DOUBLE
+        else -> null
+    }
+
+    /** Returns the number at [index] as double without boxing it. */
+    fun doubleAt(index: Int): Double {
+        boxed?.let { return it[index].toDouble() }
+        checkIndex(index)
+
+        return if(kind == Kind.DOUBLE) doubles[index] else longs[index].toDouble()
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun get(index: Int): V {
+        boxed?.let { return it[index] }
+        checkIndex(index)
+
+        return when(kind!!) {
+            Kind.INT -> longs[index].toInt()
+            Kind.LONG -> longs[index]
+            Kind.DOUBLE -> doubles[index]
+        } as V
+    }
+
+    override fun set(index: Int, element: V): V {
+        val previous = get(index)
+
+        if(boxed == null && kindOf(element) != kind) toBoxed()
+
+        boxed?.let { it[index] = element } ?: store(index, element)
+        modifications++
+
+        return previous
+    }
+
+    override fun add(index: Int, element: V) {
+        if(primitiveSize == 0 && boxed == null) kind = kindOf(element)
+        if(boxed == null && kindOf(element).let { it == null || it != kind }) toBoxed()
+
+        boxed?.let {
+            it.add(index, element)
+            modCount++
+            modifications++
+            return
+        }
+
+        if(index < 0 || index > primitiveSize) throw IndexOutOfBoundsException("index: $index, size: $size")
+
+        if(kind == Kind.DOUBLE) {
+            if(primitiveSize == doubles.size) doubles = doubles.copyOf(grownCapacity(doubles.size, primitiveSize + 1))
+            doubles.copyInto(doubles, index + 1, index, primitiveSize)
+        } else {
+            if(primitiveSize == longs.size) longs = longs.copyOf(grownCapacity(longs.size, primitiveSize + 1))
+            longs.copyInto(longs, index + 1, index, primitiveSize)
+        }
+
+        primitiveSize++
+        store(index, element)
+        modCount++
+        modifications++
+    }
+
+    override fun removeAt(index: Int): V {
+        val removed = get(index)
+
+        boxed?.removeAt(index) ?: run {
+            if(kind == Kind.DOUBLE) {
+                doubles.copyInto(doubles, index, index + 1, primitiveSize)
+            } else {
+                longs.copyInto(longs, index, index + 1, primitiveSize)
+            }
+
+            primitiveSize--
+        }
+        modCount++
+        modifications++
+
+        return removed
+    }
+
+    override fun removeRange(fromIndex: Int, toIndex: Int) {
+        boxed?.subList(fromIndex, toIndex)?.clear() ?: run {
+            if(kind == Kind.DOUBLE) {
+                doubles.copyInto(doubles, fromIndex, toIndex, primitiveSize)
+            } else {
+                longs.copyInto(longs, fromIndex, toIndex, primitiveSize)
+            }
+
+            primitiveSize -= toIndex - fromIndex
+        }
+        modCount++
+        modifications++
+    }
+
+    override fun clear() {
+        // start over with primitive storage
+        boxed = null
+        kind = null
+        primitiveSize = 0
+        modCount++
+        modifications++
+    }
+
+    private fun store(index: Int, element: V) {
+        if(kind == Kind.DOUBLE) doubles[index] = element.toDouble() else longs[index] = element.toLong()
+    }
+
+    private fun toBoxed() {
+        boxed = ArrayList<V>(maxOf(primitiveSize, INITIAL_CAPACITY)).also { list ->
+            (0 until primitiveSize).mapTo(list) { get(it) }
+        }
+
+        longs = LongArray(0)
+        doubles = DoubleArray(0)
+        primitiveSize = 0
+    }
+
+    private fun checkIndex(index: Int) {
+        if(index < 0 || index >= primitiveSize) throw IndexOutOfBoundsException("index: $index, size: $size")
+    }
+}
+
+
+/** Categories stored as int codes into a dictionary of the distinct categories. */
+internal class CategoryColumn<T> : AbstractMutableList<T>(), RandomAccess {
+
+    private val categories = ArrayList<T>()
+    private val codes = HashMap<T, Int>()
+
+    private var data = IntArray(0)
+
+    override var size = 0
+        private set
+
+    /** Counts all modifications including replaced elements, so that derived aggregates can detect changes. */
+    var modifications = 0L
+        private set
+
+    private fun encode(category: T) = codes.getOrPut(category) { categories.add(category); categories.size - 1 }
+
+    override fun get(index: Int): T {
+        checkIndex(index)
+        return categories[data[index]]
+    }
+
+    override fun set(index: Int, element: T): T {
+        val previous = get(index)
+        data[index] = encode(element)
+        modifications++
+        return previous
+    }
+
+    override fun add(index: Int, element: T) {
+        if(index < 0 || index > size) throw IndexOutOfBoundsException("index: $index, size: $size")
+
+        val code = encode(element)
+        if(size == data.size) data = data.copyOf(grownCapacity(data.size, size + 1))
+
+        data.copyInto(data, index + 1, index, size)
+        data[index] = code
+        size++
+        modCount++
+        modifications++
+    }
+
+    override fun removeAt(index: Int): T {
+        val removed = get(index)
+
+        data.copyInto(data, index, index + 1, size)
+        size--
+        modCount++
+        modifications++
+
+        return removed
+    }
+
+    override fun removeRange(fromIndex: Int, toIndex: Int) {
+        data.copyInto(data, fromIndex, toIndex, size)
+        size -= toIndex - fromIndex
+        modCount++
+        modifications++
+    }
+
+    override fun clear() {
+        size = 0
+        modCount++
+        modifications++
+    }
+
+    private fun checkIndex(index: Int) {
+        if(index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+    }
+}
@@ -0,0 +1,76 @@
+package org.kalasim.monitors
+
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
+
+
+/**
+ * A bin of a time-weighted histogram of a timeline.
+ *
+ * @property duration The time the timeline has spent with a value within the bin.
+ * @property fraction The [duration] relative to the duration of the timeline.
+ */
+data class TimelineHistogramBin(
+    val lowerBound: Double,
+    val upperBound: Double,
+    val duration: Duration,
+    val fraction: Double,
+)
+
+
+/**
+ * Computes the exact time-weighted histogram of the (retained) history of this timeline with [binCount] bins of equal
+ * width. Unlike sampling the value distribution, this is deterministic and requires a single pass over the history.
+ *
+ * @param range The range of values covered by the bins. Defaults to the range of recorded values.
+ */
+fun <V : Number> MetricTimeline<V>.histogram(
+    binCount: Int = NUM_HIST_BINS,
+    range: ClosedFloatingPointRange<Double>? = null,
+): List<TimelineHistogramBin> {
+    require(binCount > 0) { "binCount must be positive" }
+    require(values.isNotEmpty()) { "data must not be empty when preparing histogram of $name" }
+
+    val lower = range?.start ?: values.indices.minOf { doubleValueAt(it) }
+    val upper = range?.endInclusive ?: values.indices.maxOf { doubleValueAt(it) }
+    val width = (upper - lower) / binCount
+
+    // a constant timeline has a single bin of zero width
+    // the last break is set explicitly to not lose the maximum to rounding errors
+    val breaks = if(width > 0) List(binCount) { lower + it * width } + upper else listOf(lower, upper)
+
+    return histogram(breaks)
+}
+
+/**
+ * Computes the exact time-weighted histogram of the (retained) history of this timeline with bins defined by the
+ * given ascending [breaks]. Bins include their lower bound, and the last bin also includes its upper bound. Values
+ * outside of the breaks are not binned, but count towards the duration the bin fractions relate to.
+ */
+fun <V : Number> MetricTimeline<V>.histogram(breaks: List<Double>): List<TimelineHistogramBin> {
+    require(breaks.size >= 2) { "at least two breaks are required" }
+    require(breaks.zipWithNext().all { (a, b) -> a <= b }) { "breaks must be ascending" }
+    require(values.isNotEmpty()) { "data must not be empty when preparing histogram of $name" }
+
+    val binNanos = LongArray(breaks.size - 1)
+    var totalNanos = 0L
+
+    for(index in values.indices) {
+        val nanos = nanosAt(index)
+        totalNanos += nanos
+
+        val bin = breaks.binarySearch(doubleValueAt(index)).let {
+            when {
+                it == breaks.lastIndex -> it - 1 // upper bound of the last bin
+                it >= 0 -> it
+                else -> -it - 2 // last break below the value
+            }
+        }
+
+        if(bin in binNanos.indices) binNanos[bin] += nanos
+    }
+
+    return binNanos.mapIndexed { bin, nanos ->
+        TimelineHistogramBin(breaks[bin], breaks[bin + 1], nanos.nanoseconds, nanos.toDouble() / totalNanos)
+    }
+}
@@ -0,0 +1,70 @@
+package org.kalasim.monitors
+
+import org.kalasim.SimTime
+import kotlin.time.Duration
+
+
+/**
+ * Defines how much history a timeline retains, so that long-running simulations (e.g. digital twins synchronized
+ * with a `ClockSync`) do not accumulate history without bound. The default of all timelines can be configured with
+ * `Environment.entityTrackingDefaults`, and can be changed per timeline with [MetricTimeline.retention] or
+ * [CategoryTimeline.retention].
+ *
+ * Retention only affects the raw history (e.g. `statsData()`, `stepFun()` or `get(time)`). Statistics such as
+ * `MetricTimeline.statistics()` or `CategoryTimeline.summed()` are aggregated while values are added, so they remain
+ * exact for the full timeline.
+ *
+ * To keep recording amortized O(1), history is discarded in batches, so a timeline may temporarily retain up to a
+ * quarter more history than configured.
+ */
+sealed class TimelineRetention {
+
+    /** Retains the full history. */
+    data object Unlimited : TimelineRetention()
+
+    /** Retains the last [n] entries. */
+    data class LastEntries(val n: Int) : TimelineRetention() {
+        init {
+            require(n > 0) { "the number of retained entries must be positive" }
+        }
+    }
+
+    /** Retains the history within the [window] before the current simulation time. */
+    data class SlidingWindow(val window: Duration) : TimelineRetention() {
+        init {
+            require(window.isPositive()) { "the retention window must be positive" }
+        }
+    }
+
+    /**
+     * Retains the raw history within the [window] before the current simulation time, and compacts older history of
+     * a `MetricTimeline` into [buckets][MetricTimeline.buckets] of a fixed [interval] (aligned to the start of the
+     * simulation). A `CategoryTimeline` has no meaningful numeric aggregates, so it just discards older history.
+     */
+    data class Downsampled(val interval: Duration, val window: Duration) : TimelineRetention() {
+        init {
+            require(interval.isPositive()) { "the downsampling interval must be positive" }
+            require(!window.isNegative()) { "the retention window must not be negative" }
+        }
+    }
+}
+
+
+/**
+ * Aggregates of a metric timeline within a time interval of compacted history, see [TimelineRetention.Downsampled].
+ *
+ * @property mean The time-weighted mean of the timeline within the bucket.
+ * @property last The last value of the timeline within the bucket.
+ */
+data class TimelineBucket(
+    val start: SimTime,
+    val end: SimTime,
+    val min: Double,
+    val mean: Double,
+    val max: Double,
+    val last: Double,
+)
+
+
+/** Indicates if [expired] entries should be discarded now, which happens in batches to amortize array copies. */
+internal fun shouldTrim(expired: Int, retained: Int) = expired > 0 && expired >= retained / 4
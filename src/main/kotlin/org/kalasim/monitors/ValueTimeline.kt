@@ -35,9 +35,21 @@ interface ValueTimeline<T> {
     /** Resets the timeline to its current value. Mainly needed to periodic history cleanups in long running simulations. */
     fun resetToCurrent()
 
-    /** Discards all history before the given time. */
+    /**
+     * Discards all history before the given time. The value at that time is retained, so the timeline starts at
+     * [before] afterward. Statistics aggregated while recording continue to cover the discarded history.
+     */
     fun clearHistory(before: SimTime)
 
+    /**
+     * Defines how much history is retained while values are added. See [TimelineRetention] for details.
+     *
+     * Timelines retain their full history unless they support retention, in which case it can be configured with
+     * [MetricTimeline.retention] and [CategoryTimeline.retention].
+     */
+    val retention: TimelineRetention
+        get() = TimelineRetention.Unlimited
+
 //    operator fun get(from: SimTime, to: SimTime): ValueTimeline<T>
 }
 
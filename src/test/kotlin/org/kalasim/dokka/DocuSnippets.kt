@@ -75,6 +75,36 @@ fun resourceHowTo() {
 }
 
 
+fun processStepHowTo() {
+    createSimulation {
+        val clerks = Resource("clerks", capacity = 3)
+
+        class Customer : Component() {
+            override fun processStep(step: Int) = when (step) {
+                0 -> {
+                    request(clerks)
+                    1
+                }
+
+                1 -> {
+                    hold(2.minutes, "being served")
+                    2
+                }
+
+                else -> {
+                    release(clerks)
+                    PROCESS_END
+                }
+            }
+        }
+
+        ComponentGenerator(iat = 3.minutes) { Customer() }
+
+        run(1000.minutes)
+    }
+}
+
+
 fun eventsHowTo() {
     class MyEvent(val msg: String, time: SimTime) : Event(time)
 
@@ -2,9 +2,13 @@ package org.kalasim.test
 
 import io.kotest.matchers.doubles.plusOrMinus
 import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
 import org.junit.jupiter.api.Test
 import org.kalasim.Component
+import org.kalasim.ScheduledType
+import org.kalasim.analysis.RescheduledEvent
 import org.kalasim.animation.AnimationComponent
+import org.kalasim.misc.InternalKalasimApi
 import org.kalasim.misc.createTestSimulation
 import java.awt.geom.Point2D
 import kotlin.time.Duration.Companion.seconds
@@ -46,5 +50,69 @@ class AnimationTest {
         run(1.seconds)
         o1.holdProgress("h2") shouldBe null
     }
+
+    @OptIn(InternalKalasimApi::class)
+    @Test
+    fun `it should track holds without subscribing to the event bus`() = createTestSimulation {
+        val numListeners = getEventListeners().size
+
+        val vehicles = List(100) {
+            object : AnimationComponent(Point2D.Double(0.0, 0.0)) {
+                override fun process() = sequence {
+                    hold(2.seconds, "loading")
+                    hold(10.seconds, "unloading")
+                }
+            }.apply {
+                registerHoldTracker("unloading") { description == "unloading" }
+            }
+        }
+
+        getEventListeners().size shouldBe numListeners
+
+        run(5.seconds)
+        vehicles.all { it.isHolding("unloading") } shouldBe true
+        vehicles.first().holdProgress("unloading") shouldBe 0.3.plusOrMinus(0.001)
+    }
+
+    @OptIn(InternalKalasimApi::class)
+    @Test
+    fun `it should share rescheduled events with the event bus`() = createTestSimulation {
+        val published = mutableListOf<RescheduledEvent>()
+        addEventListener<RescheduledEvent> { published.add(it) }
+
+        val local = mutableListOf<RescheduledEvent>()
+
+        val vehicle = object : Component() {
+            override fun process() = sequence {
+                hold(2.seconds, "loading")
+            }
+        }
+
+        vehicle.cmpntPrps.rescheduleListeners.add { local.add(it) }
+
+        run()
+
+        local.size shouldBe 1
+        local.single() shouldBeSameInstanceAs published.single { it.component == vehicle && it.type == ScheduledType.HOLD }
+    }
+
+    @Test
+    fun `it should track bulk activations`() = createTestSimulation {
+        class Vehicle : AnimationComponent(Point2D.Double(0.0, 0.0), process = Component::none) {
+            override fun process() = sequence<Component> {}
+        }
+
+        val vehicles = List(10) {
+            Vehicle().apply {
+                registerHoldTracker("departure") { type == ScheduledType.ACTIVATE }
+            }
+        }
+
+        activateAll(vehicles, at = now + 10.seconds, process = Vehicle::process)
+
+        run(5.seconds)
+        vehicles.all { it.isHolding("departure") } shouldBe true
+        vehicles.first().holdProgress("departure") shouldBe 0.5.plusOrMinus(0.001)
+    }
 }
 
@@ -685,6 +685,97 @@ class ComponentTests {
         run()
         dinnersReady shouldBe (startDate + 135.minutes)
     }
+
+    @Test
+    fun `it should run lightweight components without state tracking`() = createTestSimulation {
+        val counter = Resource()
+        val doorOpen = State(false)
+
+        var served = 0
+
+        class Customer : Component(trackingConfig = ComponentTrackingConfig.NONE) {
+            override fun process() = sequence {
+                wait(doorOpen, true)
+                request(counter) {
+                    hold(1.minutes)
+                }
+                served++
+            }
+        }
+
+        val customers = List(10) { Customer() }
+
+        object : Component() {
+            override fun process() = sequence<Component> {
+                hold(5.minutes)
+                doorOpen.value = true
+            }
+        }
+
+        run()
+
+        served shouldBe 10
+        now shouldBe startDate + 15.minutes
+
+        // the state timeline is only created on demand, and does not record anything
+        customers.first().stateTimeline.enabled shouldBe false
+        customers.first().componentState shouldBe DATA
+    }
+
+    @Test
+    fun `it should run processes defined as state machines`() = createTestSimulation {
+        val counter = Resource()
+        val doorOpen = State(false)
+
+        val served = mutableListOf<SimTime>()
+
+        class Customer : Component() {
+            override fun processStep(step: Int) = when (step) {
+                0 -> {
+                    wait(doorOpen, true)
+                    1
+                }
+
+                1 -> {
+                    request(counter)
+                    2
+                }
+
+                2 -> {
+                    isClaiming(counter) shouldBe true
+                    hold(1.minutes)
+                    3
+                }
+
+                else -> {
+                    // steps which do not schedule the component are executed right away
+                    release(counter)
+                    served.add(now)
+                    PROCESS_END
+                }
+            }
+        }
+
+        val customers = List(3) { Customer() }
+
+        object : Component() {
+            override fun process() = sequence<Component> {
+                hold(5.minutes)
+                doorOpen.value = true
+            }
+        }
+
+        run()
+
+        served shouldBe listOf(6, 7, 8).map { startDate + it.minutes }
+        customers.forEach { it.isData shouldBe true }
+
+        // activating a terminated component restarts its state machine
+        customers.first().activate()
+        run()
+
+        served.last() shouldBe startDate + 9.minutes
+    }
 }
 
 
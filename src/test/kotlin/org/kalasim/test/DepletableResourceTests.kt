@@ -263,4 +263,38 @@ class DepletableResourceTests {
         normalPutHonored shouldBe false
         prioPutHonored shouldBe true
     }
+
+    @Test
+    fun `it should honor takes in queue order when interleaved with puts`() {
+        fun honorOrder(honorPolicy: RequestHonorPolicy) = buildList {
+            createTestSimulation {
+                val tank = DepletableResource(capacity = 100, initialLevel = 0, honorPolicy = honorPolicy)
+
+                listOf(3, 1, 2, 1, 3, 2).forEachIndexed { index, quantity ->
+                    object : Component("consumer$index") {
+                        override fun process() = sequence {
+                            take(tank, quantity)
+                            add(name)
+                        }
+                    }
+                }
+
+                object : Component("producer") {
+                    override fun process() = sequence {
+                        repeat(12) {
+                            hold(1.minutes)
+                            put(tank, 1)
+                        }
+                    }
+                }
+
+                run()
+
+                tank.level shouldBe 0.0
+            }
+        }
+
+        honorOrder(RequestHonorPolicy.StrictFCFS) shouldBe List(6) { "consumer$it" }
+        honorOrder(RequestHonorPolicy.SQF) shouldBe listOf(1, 3, 2, 5, 0, 4).map { "consumer$it" }
+    }
 }
@@ -1,13 +1,18 @@
 package org.kalasim.test
 
+import com.github.holgerbrandl.jsonbuilder.json
 import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.comparables.shouldBeGreaterThan
 import io.kotest.matchers.comparables.shouldBeLessThan
+import io.kotest.matchers.comparables.shouldBeLessThanOrEqualTo
+import io.kotest.matchers.ints.shouldBeGreaterThanOrEqual
 import io.kotest.matchers.doubles.plusOrMinus
+import io.kotest.matchers.collections.shouldNotBeEmpty
 import io.kotest.matchers.shouldBe
 import io.kotest.matchers.types.instanceOf
 import org.junit.jupiter.api.Disabled
 import org.junit.jupiter.api.Test
+import org.json.JSONObject
 import org.kalasim.*
 import org.kalasim.analysis.*
 import org.kalasim.examples.bank.data.*
@@ -21,6 +26,8 @@ import org.koin.dsl.module
 import java.io.File
 import java.lang.Thread.sleep
 import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.zip.GZIPInputStream
 import kotlin.io.path.div
 import kotlin.test.fail
 import kotlin.time.Duration.Companion.days
@@ -179,6 +186,76 @@ class EnvTests {
         asyncListener.stop()
     }
 
+    @Test
+    fun `it should consume events in batches with bounded memory`() = createTestSimulation {
+        ComponentGenerator(iat = constant(5).minutes, total = 500) { Component("Car.${it}") }
+
+        val created = collect<EntityCreatedEvent>()
+        val consumed = mutableListOf<String>()
+
+        val listener = addBatchingEventListener<EntityCreatedEvent>(capacity = 16, maxBatchSize = 4) { batch ->
+            sleep(1)
+            consumed += batch.map { it.entity.name }
+        }
+
+        run(5.days)
+        listener.close()
+
+        // slow consumers should block the simulation without losing events
+        consumed shouldBe created.map { it.entity.name }
+
+        with(listener.statistics) {
+            published shouldBe created.size.toLong()
+            dropped shouldBe 0L
+            delivered shouldBe created.size.toLong()
+            lag shouldBe 0L
+            maxLag shouldBeLessThanOrEqualTo 16L + 4
+
+            toJson().getLong("delivered") shouldBe delivered
+        }
+    }
+
+    @Test
+    fun `it should drop events if batching consumers lag behind`() {
+        OverflowPolicy.entries.filter { it != OverflowPolicy.BLOCK }.forEach { policy ->
+            createTestSimulation {
+                ComponentGenerator(iat = constant(5).minutes, total = 500) { Component("Car.${it}") }
+
+                val created = collect<EntityCreatedEvent>()
+                val consumed = mutableListOf<String>()
+
+                val consumerStalled = CountDownLatch(1)
+
+                val listener = addBatchingEventListener<EntityCreatedEvent>(
+                    capacity = 16,
+                    overflowPolicy = policy,
+                    maxBatchSize = 4
+                ) { batch ->
+                    consumerStalled.await()
+                    consumed += batch.map { it.entity.name }
+                }
+
+                run(5.days)
+                consumerStalled.countDown()
+                listener.close()
+
+                with(listener.statistics) {
+                    published shouldBe created.size.toLong()
+                    dropped shouldBeGreaterThan 0L
+                    (delivered + dropped) shouldBe published
+                    consumed.size.toLong() shouldBe delivered
+                }
+
+                // events should be delivered in order
+                val createdIndex = created.withIndex().associate { it.value.entity.name to it.index }
+                consumed.map { createdIndex.getValue(it) }.zipWithNext().all { (a, b) -> a < b } shouldBe true
+
+                // the most recent events should have been retained
+                if(policy == OverflowPolicy.DROP_OLDEST) consumed.last() shouldBe created.last().entity.name
+            }
+        }
+    }
+
     @Test
     fun `it should allow to synchronize clock time`() {
         val timeBefore = System.currentTimeMillis()
@@ -309,6 +386,82 @@ class EnvTests {
         creations2.size shouldBe 5 // because sim is deterministic here
     }
 
+    @Test
+    fun `it should create events just if they are consumed by a listener`() =
+        createTestSimulation(enableComponentLogger = false) {
+            val activities = collect<ResourceActivityEvent>()
+            val resourceEvents = collect<ResourceEvent>()
+
+            hasListeners(ResourceActivityEvent::class.java) shouldBe true
+            hasListeners(ResourceEvent::class.java) shouldBe true
+            hasListeners(RescheduledEvent::class.java) shouldBe false
+            hasListeners(EntityCreatedEvent::class.java) shouldBe false
+
+            // events of super-types may turn out to be consumed by listeners of subtypes
+            hasListeners(InteractionEvent::class.java) shouldBe true
+            hasListeners(Event::class.java) shouldBe true
+
+            val clerk = Resource()
+
+            object : Component() {
+                override fun process() = sequence {
+                    request(clerk) { hold(1.minutes) }
+                }
+            }
+
+            run(1.hours)
+
+            activities.size shouldBe 1
+            resourceEvents.map { it.type } shouldBe listOf(
+                ResourceEventType.REQUESTED,
+                ResourceEventType.CLAIMED,
+                ResourceEventType.RELEASED
+            )
+
+            // untyped listeners consume all events
+            addEventListener { }
+            hasListeners(RescheduledEvent::class.java) shouldBe true
+        }
+
+    @Test
+    fun `it should dispatch events just to listeners of matching types`() = createTestSimulation {
+        val received = mutableListOf<Event>()
+
+        addEventListener(object : EventListener {
+            override val eventType = ComponentStateChangeEvent::class.java
+
+            override fun consume(event: Event) {
+                received += event
+            }
+        })
+
+        // listeners may be added and removed while dispatching
+        val lateEvents = mutableListOf<Event>()
+        val lateListener = EventListener { lateEvents += it }
+
+        addEventListener(object : EventListener {
+            override val eventType = EntityCreatedEvent::class.java
+
+            override fun consume(event: Event) {
+                removeEventListener(this)
+                addEventListener(lateListener)
+            }
+        })
+
+        ComponentGenerator(iat = constant(5).minutes, total = 3) { Component("Car.${it}") }
+
+        run(1.hours)
+
+        received.shouldNotBeEmpty()
+        received.all { it is ComponentStateChangeEvent } shouldBe true
+        received.any { it is RescheduledEvent } shouldBe true
+
+        lateEvents.shouldNotBeEmpty()
+        // the creation of the generator was dispatched before adding the late listener
+        lateEvents.filterIsInstance<EntityCreatedEvent>().none { it.entity is ComponentGenerator<*> } shouldBe true
+        lateEvents.count { it is EntityCreatedEvent } shouldBe 3
+    }
+
     @Test
     fun `it still support configuring dependencies before creating the simulation`() {
         class Car : Component() {
@@ -620,6 +773,265 @@ class EnvTests {
             }
         """.trimIndent()
     }
+
+    @Test
+    fun `it should preserve event order when cancelling scheduled components`() =
+        createTestSimulation(enableComponentLogger = false) {
+            val wakeUps = mutableListOf<Pair<SimTime, Int>>()
+
+            class Sleeper(val wakeUpIn: Int, val prio: Int) : Component(trackingConfig = ComponentTrackingConfig.NONE) {
+                override fun process() = sequence {
+                    hold(wakeUpIn.minutes, priority = Priority(prio))
+                    wakeUps.add(now to prio)
+                }
+            }
+
+            val sleepers = List(500) { Sleeper(random.nextInt(2, 50), random.nextInt(-2, 3)) }
+
+            run(1.minutes)
+
+            val cancelled = sleepers.filterIndexed { index, _ -> index % 3 == 0 }
+            cancelled.forEach { it.cancel() }
+
+            queue.size shouldBe sleepers.size - cancelled.size
+
+            run()
+
+            wakeUps.size shouldBe sleepers.size - cancelled.size
+            wakeUps.zipWithNext().forEach { (first, second) ->
+                if(first.first == second.first) {
+                    first.second shouldBeGreaterThanOrEqual second.second
+                } else {
+                    first.first shouldBeLessThan second.first
+                }
+            }
+        }
+
+    @Test
+    fun `it should replace the pending continuation when pushing a scheduled component again`() =
+        createTestSimulation {
+            val wakeUps = mutableListOf<SimTime>()
+
+            val sleeper = object : Component(process = Component::none) {
+                override fun process() = sequence<Component> {
+                    wakeUps.add(now)
+                }
+            }
+
+            sleeper.activate(at = now + 10.minutes, process = Component::process)
+
+            // a component has a single continuation, so a stale event queue entry must not fire in addition
+            push(sleeper, now + 5.minutes, Priority.NORMAL, false)
+
+            queue shouldBe listOf(sleeper)
+
+            run()
+
+            wakeUps shouldBe listOf(startDate + 5.minutes)
+        }
+
+    @Test
+    fun `it should keep untimed waiting components outside of the event queue`() {
+        val eventQueue = BinaryHeapEventQueue()
+
+        createSimulation(eventQueue = eventQueue) {
+            val gate = State(false)
+
+            val waiters = List(3) {
+                object : Component("waiter") {
+                    override fun process() = sequence {
+                        wait(gate, true)
+                        hold(1.minutes)
+                    }
+                }
+            }
+
+            // without any timed events left, the run should end without advancing the clock
+            run()
+
+            now shouldBe startDate
+            waiters.forEach { it.isWaiting shouldBe true }
+
+            // waiting components are parked, but still listed in the queue view
+            eventQueue.isEmpty() shouldBe true
+            queue shouldBe waiters
+
+            gate.value = true
+            waiters.forEach { (it in eventQueue) shouldBe true }
+
+            run()
+
+            now shouldBe startDate + 1.minutes
+            waiters.forEach { it.isData shouldBe true }
+            queue.size shouldBe 0
+        }
+    }
+
+    @Test
+    fun `it should activate components in bulk`() = createTestSimulation {
+        val activations = mutableListOf<String>()
+
+        class Order : Component(process = Component::none) {
+            override fun process() = sequence<Component> {
+                activations.add(name)
+            }
+        }
+
+        val bulkEvents = mutableListOf<BulkActivationEvent>()
+        addEventListener<BulkActivationEvent> { bulkEvents.add(it) }
+
+        val orders = List(1000) { Order() }
+        orders.forEach { it.isData shouldBe true }
+
+        activateAll(orders, at = now + 1.hours, process = Order::process)
+
+        orders.forEach { it.scheduledTime shouldBe now + 1.hours }
+        bulkEvents.single().components.size shouldBe orders.size
+
+        run()
+
+        activations shouldBe orders.map { it.name }
+
+        // the default process of terminated components is restarted
+        activateAll(orders.reversed())
+        run()
+
+        activations.takeLast(orders.size) shouldBe orders.reversed().map { it.name }
+    }
+
+    @Test
+    fun `it should activate equal data class components in bulk`() = createTestSimulation {
+        val activations = mutableListOf<String>()
+
+        data class Order(val sku: String) : Component(process = Component::none) {
+            override fun process() = sequence<Component> {
+                activations.add(name)
+            }
+        }
+
+        val orders = List(10) { Order("pencil") }
+        orders.distinct().size shouldBe 1
+
+        activateAll(orders, process = Order::process)
+        run()
+
+        activations shouldBe orders.map { it.name }
+
+        // the same instance must still not be activated twice
+        shouldThrow<IllegalArgumentException> {
+            activateAll(orders + orders.first(), process = Order::process)
+        }
+    }
+
+    @Test
+    fun `it should stream events into a binary journal`() = createTestSimulation {
+
+        class CustomEvent(time: SimTime, val count: Int, val label: String?) : Event(time) {
+            override fun toJson() = json {
+                "count" to count
+                "label" to label
+            }
+        }
+
+        val journalFile = File.createTempFile("kalasim", ".journal").toPath()
+
+        val eventLog = enableEventLog()
+        // use tiny blocks to interleave the blocks of different event types
+        val journal = enableEventJournal(journalFile, blockSize = 3)
+
+        val resource = Resource(capacity = 2)
+
+        ComponentGenerator(iat = 1.minutes, total = 10) {
+            object : Component() {
+                override fun process() = sequence {
+                    request(resource) {
+                        hold(3.minutes)
+                    }
+                    log(CustomEvent(now, it, if(it % 2 == 0) "even" else null))
+                }
+            }
+        }
+
+        run(1.days)
+        journal.close()
+
+        journal.size shouldBe eventLog.size.toLong()
+
+        val reader = EventJournalReader(journalFile)
+
+        val journaledCount = reader.useEvents { events ->
+            events.zip(eventLog.asSequence()).onEach { (journaled, event) ->
+                journaled.time shouldBe event.time
+                journaled.journaledType shouldBe event.eventType
+
+                if(event is ResourceEvent) {
+                    journaled["requester"] shouldBe event.requester.name
+                    journaled["type"] shouldBe event.type.toString()
+                    journaled["amount"] shouldBe event.amount
+                    journaled["claimers"] shouldBe event.claimers.toLong()
+                }
+
+                if(event is RescheduledEvent) journaled["scheduled_for"] shouldBe event.scheduledFor
+            }.count()
+        }
+
+        journaledCount shouldBe eventLog.size
+
+        val customEvents = reader.toDataFrame(eventLog.first { it is CustomEvent }.eventType)
+        customEvents.rowsCount() shouldBe 10
+        customEvents.columnNames() shouldBe listOf("time", "count", "label")
+        customEvents["label"].values().count { it == null } shouldBe 5
+    }
+
+    @Test
+    fun `it should export events as json lines`() {
+        val exportFile = File.createTempFile("kalasim", ".jsonl").toPath()
+
+        val er = EmergencyRoom(enableInternalMetrics = true)
+
+        val eventLog = er.enableEventLog()
+        val exporter = er.enableJsonLinesExport(exportFile)
+
+        er.run(1.hours)
+        exporter.close()
+
+        val lines = exportFile.toFile().readLines().map { JSONObject(it) }
+        lines.size shouldBe eventLog.size
+
+        // the export should correspond to the json representation of the events
+        lines.zip(eventLog).filter { it.second !is MetricEvent }.forEach { (line, event) ->
+            val expected = JSONObject(event.toJson().toString())
+            if(expected.opt("type") == event.eventType) expected.remove("type")
+
+            line.getString("eventType") shouldBe event.eventType
+            expected.keySet().filter { it != "eventType" }.forEach { key ->
+                line.opt(key).toString() shouldBe expected.opt(key).toString()
+            }
+        }
+    }
+
+    @Test
+    fun `it should rotate and compress json lines exports`() {
+        val exportFile = File.createTempFile("kalasim", ".jsonl.gz").toPath()
+
+        val er = EmergencyRoom()
+
+        val eventLog = er.enableEventLog()
+        val exporter = er.enableJsonLinesExport(exportFile, rotateAfterBytes = 50_000, compress = true)
+
+        er.run(1.days)
+        exporter.close()
+
+        exporter.files.size shouldBeGreaterThan 1
+        exporter.files.drop(1).first().fileName.toString() shouldBe exportFile.fileName.toString().replace(".jsonl", ".1.jsonl")
+
+        val lines = exporter.files.flatMap { file ->
+            GZIPInputStream(file.toFile().inputStream()).bufferedReader().readLines()
+        }
+
+        lines.size shouldBe eventLog.size
+        JSONObject(lines.last()).getString("time") shouldBe eventLog.last().time.toString()
+    }
 }
 
 class CustomKoinModuleTests {
@@ -714,4 +1126,4 @@ class CustomKoinModuleTests {
 
         match.remaining shouldBe (3.hours + 50.minutes)
     }
-}
\ No newline at end of file
+}
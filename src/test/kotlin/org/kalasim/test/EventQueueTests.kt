@@ -0,0 +1,152 @@
+package org.kalasim.test
+
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+import org.kalasim.*
+import org.kalasim.misc.createTestSimulation
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.minutes
+
+class EventQueueTests {
+
+    private val implementations = listOf(::BinaryHeapEventQueue, ::CalendarEventQueue, ::LadderEventQueue)
+
+    @Test
+    fun `all event queues should poll elements in the same order`() = createTestSimulation(enableComponentLogger = false) {
+        val components = List(2000) { Component("c$it") }
+
+        val traces = implementations.map { createQueue ->
+            val queue = createQueue()
+            val random = Random(42)
+
+            val reference = mutableListOf<QueueElement>()
+            var counter = 0
+            var clock = now
+
+            buildList {
+                repeat(50_000) {
+                    val component = components.random(random)
+
+                    when {
+                        // occasionally cancel a scheduled component
+                        random.nextDouble() < 0.1 -> {
+                            queue.remove(component) shouldBe reference.removeIf { it.component == component }
+                        }
+
+                        // schedule or reschedule a component
+                        random.nextDouble() < 0.6 -> {
+                            val time = when(random.nextInt(5)) {
+                                0 -> clock
+                                1 -> clock + random.nextInt(5).minutes
+                                2 -> clock + random.nextLong(1, 10_000).milliseconds
+                                3 -> clock + random.nextInt(1, 100).days
+                                else -> if(random.nextBoolean()) SimTime.DISTANT_FUTURE else clock + 3.hours
+                            }
+                            val priority = Priority(random.nextInt(-1, 2))
+
+                            queue.remove(component)
+                            reference.removeIf { it.component == component }
+
+                            queue.add(component, time, priority, ++counter, false)
+                            reference += QueueElement(component, time, Priority(-priority.value), counter, false)
+                        }
+
+                        // advance the clock
+                        reference.isNotEmpty() -> {
+                            val next = reference.min()
+                            reference.remove(next)
+
+                            queue.peekTime() shouldBe next.time
+                            queue.poll() shouldBe next.component
+
+                            clock = next.time
+                            add(next.component.name)
+                        }
+                    }
+
+                    queue.size shouldBe reference.size
+                }
+
+                while(queue.isNotEmpty()) add(queue.poll().name)
+                reference.sorted().map { it.component.name } shouldBe takeLast(reference.size)
+            }
+        }
+
+        traces.distinct().size shouldBe 1
+    }
+
+    @Test
+    fun `all event queues should poll elements added in bulk like elements added one by one`() =
+        createTestSimulation(enableComponentLogger = false) {
+            val components = List(3000) { Component("c$it") }
+
+            // both a small and a large batch, which are sifted and heapified respectively by the binary heap
+            val scheduled = components.take(2000)
+            val batches = listOf(components.subList(2000, 2010), components.subList(2010, 3000))
+
+            val traces = implementations.flatMap { createQueue ->
+                listOf(true, false).map { bulk ->
+                    val queue = createQueue()
+                    val random = Random(42)
+                    var counter = 0
+
+                    scheduled.forEach {
+                        queue.add(it, now + random.nextInt(100).minutes, Priority(random.nextInt(-1, 2)), ++counter, false)
+                    }
+
+                    batches.forEachIndexed { index, batch ->
+                        val time = now + (50 * index).minutes
+
+                        if(bulk) {
+                            queue.addAll(batch, time, Priority.NORMAL, counter + 1, false)
+                            counter += batch.size
+                        } else {
+                            batch.forEach { queue.add(it, time, Priority.NORMAL, ++counter, false) }
+                        }
+                    }
+
+                    queue.size shouldBe components.size
+
+                    buildList { while(queue.isNotEmpty()) add(queue.poll().name) }
+                }
+            }
+
+            traces.distinct().size shouldBe 1
+        }
+
+    @Test
+    fun `it should replay a simulation identically with all event queues`() {
+        val traces = implementations.map { createQueue ->
+            val trace = mutableListOf<String>()
+
+            createSimulation(eventQueue = createQueue()) {
+                addEventListener { trace.add(it.toString()) }
+
+                val doctors = Resource("doctors", capacity = 3)
+                val treatmentTime = exponential(5.minutes)
+
+                ComponentGenerator(iat = exponential(2.minutes)) {
+                    object : Component("patient") {
+                        override fun process() = sequence {
+                            request(doctors, priority = Priority(random.nextInt(-1, 2))) {
+                                hold(treatmentTime())
+                            }
+
+                            if(random.nextDouble() < 0.2) hold(1.hours)
+                        }
+                    }
+                }
+
+                run(2.days)
+            }
+
+            trace
+        }
+
+        traces.first().size shouldBe traces.last().size
+        traces.distinct().size shouldBe 1
+    }
+}
@@ -1,6 +1,7 @@
 package org.kalasim.test
 
 import io.kotest.matchers.doubles.*
+import io.kotest.matchers.ints.shouldBeLessThan
 import io.kotest.matchers.shouldBe
 import org.apache.commons.math3.distribution.ExponentialDistribution
 import org.junit.jupiter.api.Test
@@ -88,4 +89,42 @@ class GeneratorTest {
 
         run(10.days)
     }
+
+    @Test
+    fun `it should reuse terminated components when pooling`() = createTestSimulation {
+        val counter = Resource(capacity = 2)
+
+        var served = 0
+        var recycled = 0
+
+        class Caller : Component(trackingConfig = ComponentTrackingConfig.NONE) {
+            var waitingSince = now
+
+            override fun process() = sequence {
+                request(counter) {
+                    hold(2.minutes)
+                }
+                served++
+            }
+
+            override fun onRecycle() {
+                waitingSince = now
+                recycled++
+            }
+        }
+
+        val callers = mutableSetOf<Caller>()
+
+        ComponentGenerator(iat = constant(1).minutes, total = 100, pooled = true) { Caller() }
+            .addConsumer {
+                it.waitingSince shouldBe now
+                callers.add(it)
+            }
+
+        run(1.days)
+
+        served shouldBe 100
+        callers.size shouldBe 100 - recycled
+        callers.size shouldBeLessThan 10
+    }
 }
\ No newline at end of file
@@ -19,4 +19,21 @@ class MMcQueueTests {
 
     }
 
+    @Test
+    fun `it should simulate the same queue with state machine processes`() {
+        val sequenceQueue = MMcQueue(c = 4, mu = 4, lambda = 12, enableInternalMetrics = true)
+        sequenceQueue.run(100)
+
+        val stepQueue = MMcQueue(c = 4, mu = 4, lambda = 12, enableInternalMetrics = true, useProcessSteps = true)
+        stepQueue.run(100)
+
+        stepQueue.componentGenerator.numGenerated shouldBe sequenceQueue.componentGenerator.numGenerated
+        with(stepQueue.server.claimedTimeline.statistics()) {
+            val expected = sequenceQueue.server.claimedTimeline.statistics()
+
+            mean shouldBe expected.mean
+            standardDeviation shouldBe expected.standardDeviation
+        }
+    }
+
 }
\ No newline at end of file
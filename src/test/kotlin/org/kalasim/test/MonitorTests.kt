@@ -2,16 +2,34 @@ package org.kalasim.test
 
 import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.doubles.plusOrMinus
+import io.kotest.matchers.ints.shouldBeInRange
+import io.kotest.matchers.longs.shouldBeInRange
 import io.kotest.matchers.shouldBe
 import org.apache.commons.math3.distribution.EnumeratedDistribution
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
 import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues
+import org.apache.commons.math3.stat.descriptive.moment.Mean
+import org.apache.commons.math3.stat.descriptive.moment.Variance
 import org.junit.jupiter.api.Test
+import org.kalasim.Component
+import org.kalasim.ComponentQueue
+import org.kalasim.SimTime
+import org.kalasim.asTicks
 import org.kalasim.get
 import org.kalasim.hour
 import org.kalasim.misc.*
+import org.kalasim.monitors.merge
+import org.kalasim.misc.time.sumOf
 import org.kalasim.monitors.*
 import org.kalasim.test.MonitorTests.Car.*
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.sqrt
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.hours
 import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.nanoseconds
 
 class MonitorTests {
 
@@ -178,6 +196,100 @@ class MonitorTests {
         nsm.statistics().mean shouldBe 4.0
     }
 
+    @Test
+    fun `it should decrement numeric stats in bounded memory`() = createTestSimulation {
+        var nsm = NumericStatisticMonitor(boundedMemory = true)
+
+        shouldThrow<IllegalArgumentException> { nsm-- }
+
+        nsm++
+        nsm++
+        nsm--
+
+        nsm.count shouldBe 3L
+        nsm.statistics().max shouldBe 2.0
+        nsm.statistics().mean shouldBe (4.0 / 3 plusOrMinus 1E-8)
+    }
+
+    @Test
+    fun `it should summarize numeric stats in bounded memory`() = createTestSimulation {
+        val random = Random(1)
+
+        val exact = NumericStatisticMonitor()
+        val bounded = NumericStatisticMonitor(boundedMemory = true)
+
+        // skewed values including zeros and negative values
+        repeat(100_000) {
+            val value = if(random.nextDouble() < 0.1) 0.0 else exp(random.nextDouble() * 10) - 10
+            exact.addValue(value)
+            bounded.addValue(value)
+        }
+
+        val reference = DescriptiveStatistics(exact.values)
+
+        with(bounded.statistics()) {
+            n shouldBe reference.n
+            mean shouldBe (reference.mean plusOrMinus 1E-8)
+            standardDeviation shouldBe (reference.standardDeviation plusOrMinus 1E-6)
+            min shouldBe reference.min
+            max shouldBe reference.max
+        }
+
+        val sketch = bounded.sketch()
+        listOf(0.01, 0.1, 0.5, 0.9, 0.95, 0.99).forEach {
+            val expected = reference.getPercentile(it * 100)
+            sketch.quantile(it) shouldBe (expected plusOrMinus abs(expected) * 0.02)
+        }
+
+        bounded.statistics(excludeZeros = true).n shouldBe exact.values.count { it > 0 }.toLong()
+
+        // sketches of several monitors can be merged
+        val halves = exact.values.toList().chunked(50_000).map { chunk ->
+            NumericStatisticMonitor(boundedMemory = true).apply { chunk.forEach { addValue(it) } }.sketch()
+        }
+
+        with(halves.merge()) {
+            n shouldBe sketch.n
+            mean shouldBe (sketch.mean plusOrMinus 1E-8)
+            variance shouldBe (sketch.variance plusOrMinus 1E-4)
+            quantile(0.9) shouldBe sketch.quantile(0.9)
+        }
+
+        bounded.statistics().toJson().has("ninetyfive_pct_quantile") shouldBe true
+
+        shouldThrow<IllegalArgumentException> { bounded.values }
+    }
+
+    @Test
+    fun `queues should track length of stay in bounded memory if configured`() = createTestSimulation {
+        val exact = ComponentQueue<Component>()
+
+        entityTrackingDefaults.DefaultComponentCollectionConfig =
+            ComponentCollectionTrackingConfig(boundedLengthOfStayStatistics = true)
+
+        val bounded = ComponentQueue<Component>()
+
+        repeat(10) {
+            Component().let { exact.add(it); bounded.add(it) }
+            run(it.minutes)
+        }
+
+        while(exact.isNotEmpty()) {
+            exact.poll()
+            bounded.poll()
+            run(1.minutes)
+        }
+
+        bounded.lengthOfStayStatistics.boundedMemory shouldBe true
+        bounded.lengthOfStayStatistics.count shouldBe 10L
+
+        val reference = exact.statistics.lengthOfStayStats
+        with(bounded.statistics.lengthOfStayStats) {
+            max shouldBe reference.max
+            mean shouldBe (reference.mean plusOrMinus 1E-10)
+        }
+    }
+
     @Test
     fun `disabled monitor should error nicely when being queried`() = createTestSimulation {
         //FrequencyMonitor
@@ -247,12 +359,231 @@ class MonitorTests {
             initRangeAll.pmf.size shouldBe  4
         }
 
+    @Test
+    fun `timeline columns should behave like lists`() {
+        val random = Random(1)
+        val origin = SimTime.parse("2500-01-01T00:00:00Z")
+
+        val times = TimeColumn()
+        val numbers = NumberColumn<Number>()
+        val categories = CategoryColumn<Car?>()
+
+        val timesRef = mutableListOf<SimTime>()
+        val numbersRef = mutableListOf<Number>()
+        val categoriesRef = mutableListOf<Car?>()
+
+        repeat(2000) {
+            if(timesRef.isNotEmpty() && random.nextDouble() < 0.2) {
+                val index = random.nextInt(timesRef.size)
+                times.removeAt(index) shouldBe timesRef.removeAt(index)
+                numbers.removeAt(index) shouldBe numbersRef.removeAt(index)
+                categories.removeAt(index) shouldBe categoriesRef.removeAt(index)
+            } else {
+                val index = random.nextInt(timesRef.size + 1)
+                val time = origin + random.nextLong(-1_000_000_000_000, 1_000_000_000_000).nanoseconds
+                // stay primitive for a while before mixing types
+                val number: Number = if(it < 1000) random.nextInt() else random.nextDouble()
+                val category = Car.entries.plus(null).random(random)
+
+                times.add(index, time).also { timesRef.add(index, time) }
+                numbers.add(index, number).also { numbersRef.add(index, number) }
+                categories.add(index, category).also { categoriesRef.add(index, category) }
+            }
+        }
+
+        times shouldBe timesRef
+        numbers shouldBe numbersRef
+        categories shouldBe categoriesRef
+        times.subList(10, 20) shouldBe timesRef.subList(10, 20)
+
+        times.clear()
+        times.add(SimTime.DISTANT_PAST + 1.days)
+        times.first() shouldBe SimTime.DISTANT_PAST + 1.days
+
+        // timelines must not span more than 292 years
+        shouldThrow<ArithmeticException> { times.add(SimTime.DISTANT_FUTURE) }
+    }
+
+    @Test
+    fun `timelines should maintain statistics incrementally`() = createTestSimulation {
+        val random = Random(1)
+
+        val mt = IntTimeline(initialValue = 3)
+        val ct = CategoryTimeline(initialValue = AUDI)
+
+        repeat(300) {
+            if(random.nextDouble() < 0.8) run(random.nextInt(1, 10).minutes)
+
+            mt.addValue(random.nextInt(0, 5))
+            ct.addValue(Car.entries.random(random))
+        }
+
+        run(3.minutes)
+
+        fun MetricTimeline<Int>.shouldMatchStatsData(excludeZeros: Boolean) {
+            val data = statsData(excludeZeros)
+            val values = data.values.map { it.toDouble() }.toDoubleArray()
+            val weights = data.durations.map { env.asTicks(it) }.toDoubleArray()
+
+            with(statistics(excludeZeros)) {
+                duration shouldBe data.durations.sumOf { it }
+                min shouldBe values.minOrNull()
+                max shouldBe values.maxOrNull()
+                mean!! shouldBe (Mean().evaluate(values, weights) plusOrMinus 1E-10)
+                standardDeviation!! shouldBe (sqrt(Variance().evaluate(values, weights)) plusOrMinus 1E-10)
+            }
+        }
+
+        mt.shouldMatchStatsData(false)
+        mt.shouldMatchStatsData(true)
+
+        val summed = ct.statsData().run { values.zip(durations) }
+            .filter { it.second.isPositive() }
+            .groupBy({ it.first }, { it.second })
+            .mapValues { it.value.sumOf { it } }
+
+        ct.summed() shouldBe summed
+        ct.summed().keys.toList() shouldBe summed.keys.toList()
+        ct.total(PORSCHE) shouldBe summed[PORSCHE]
+        ct.getPct(VW) shouldBe (summed.getValue(VW) / summed.values.sumOf { it } plusOrMinus 1E-10)
+
+        // direct modifications of the history must be reflected as well
+        mt.values[1] = 100
+        mt.shouldMatchStatsData(false)
+        mt.statistics().max shouldBe 100.0
+
+        // statistics should still cover the history after clearing it
+        val before = mt.statistics().toString()
+        mt.clearHistory(now)
+        mt.statistics().toString() shouldBe before
+    }
+
+    @Test
+    fun `it should compute exact time-weighted histograms`() = createTestSimulation {
+        val mt = IntTimeline()
+
+        run(2.minutes)
+        mt.addValue(5)
+        run(3.minutes)
+        mt.addValue(10)
+        run(5.minutes)
+
+        mt.histogram(binCount = 2) shouldBe listOf(
+            TimelineHistogramBin(0.0, 5.0, 2.minutes, 0.2),
+            TimelineHistogramBin(5.0, 10.0, 8.minutes, 0.8),
+        )
+
+        // values outside the breaks are not binned
+        mt.histogram(listOf(1.0, 6.0, 8.0)).map { it.duration } shouldBe listOf(3.minutes, 0.minutes)
+
+        captureOutput { mt.printHistogram(binCount = 2) }.stdout.lines().last { it.isNotBlank() } shouldBe
+                "[5.00, 10.00]     |    8.00 |  .80 | ********************************"
+
+        // constant timelines have a single bin
+        IntTimeline(initialValue = 3).apply { run(1.minutes) }.histogram().single().fraction shouldBe 1.0
+    }
+
+    @Test
+    fun `timelines should retain history according to their retention policy`() = createTestSimulation {
+        val random = Random(1)
+
+        val reference = DoubleTimeline()
+        val refCategories = CategoryTimeline(initialValue = AUDI)
+
+        entityTrackingDefaults.DefaultTimelineRetention = TimelineRetention.LastEntries(10)
+        val lastEntries = DoubleTimeline()
+
+        val window = DoubleTimeline().apply { retention = TimelineRetention.SlidingWindow(2.hours) }
+        val downsampled = DoubleTimeline().apply { retention = TimelineRetention.Downsampled(1.hours, 3.hours) }
+        val categories = CategoryTimeline(initialValue = AUDI).apply {
+            retention = TimelineRetention.SlidingWindow(2.hours)
+        }
+
+        repeat(1000) {
+            if(random.nextDouble() < 0.8) run(random.nextInt(1, 10).minutes)
+
+            val value = random.nextInt(0, 5).toDouble()
+            listOf(reference, lastEntries, window, downsampled).forEach { it.addValue(value) }
+
+            val category = Car.entries.random(random)
+            listOf(refCategories, categories).forEach { it.addValue(category) }
+        }
+
+        run(3.minutes)
+
+        // statistics must cover the full history irrespective of the retention
+        listOf(lastEntries, window, downsampled).forEach {
+            it.statistics().toString() shouldBe reference.statistics().toString()
+            it[now] shouldBe reference[now]
+        }
+
+        categories.summed() shouldBe refCategories.summed()
+
+        lastEntries.values.size shouldBeInRange 10..12
+        lastEntries.values shouldBe reference.values.takeLast(lastEntries.values.size)
+
+        (now - window.timestamps.first()).inWholeMinutes shouldBeInRange 120L..150L
+        window[now - 2.hours] shouldBe reference[now - 2.hours]
+        categories.getData().first().first shouldBe window.timestamps.first()
+
+        with(downsampled) {
+            buckets.zipWithNext().all { (a, b) -> a.end == b.start } shouldBe true
+            buckets.first().start shouldBe startDate
+            buckets.last().end shouldBe timestamps.first()
+
+            buckets.forEach {
+                val clipped = reference.clip(it.start, it.end - 1.nanoseconds).statistics()
+
+                it.mean shouldBe (clipped.mean!! plusOrMinus 1E-6)
+                it.min shouldBe clipped.min
+                it.max shouldBe clipped.max
+                it.last shouldBe reference[it.end - 1.nanoseconds]
+            }
+        }
+
+        // clearing the history should start the timeline at the given time
+        val cleared = reference.copy().apply { clearHistory(now - 1.hours) }
+        cleared.timestamps.first() shouldBe now - 1.hours
+        cleared[now - 1.hours] shouldBe reference[now - 1.hours]
+        cleared.values.size shouldBe reference.timestamps.count { it > now - 1.hours } + 1
+    }
 }
 
 
 /* Test the monitors can be merged. */
 class MergeTimelineTests {
 
+    @Test
+    fun `it should combine timelines like a point-wise lookup`() = createTestSimulation {
+        val random = Random(1)
+
+        val mtA = IntTimeline()
+        val mtB = IntTimeline()
+
+        repeat(500) {
+            // occasionally record several values at the same time
+            if(random.nextDouble() < 0.7) run(random.nextInt(1, 5).minutes)
+
+            (if(random.nextBoolean()) mtA else mtB).addValue(random.nextInt(1, 10))
+        }
+
+        run(5.minutes)
+
+        // brute-force reference of the step-function algebra
+        fun MetricTimeline<Int>.lookup(time: SimTime) = timestamps.indices.last { timestamps[it] <= time }.let { values[it] }
+
+        val times = (mtA.timestamps + mtB.timestamps).distinct().sorted()
+
+        val sum = mtA + mtB
+        sum.timestamps shouldBe times
+        sum.values shouldBe times.map { (mtA.lookup(it) + mtB.lookup(it)).toDouble() }
+
+        val ratio = mtA / mtB
+        ratio.values shouldBe times.map { mtA.lookup(it).toDouble() / mtB.lookup(it) }
+
+        times.forEach { sum[it] shouldBe (mtA.lookup(it) + mtB.lookup(it)).toDouble() }
+    }
+
     @Test
     fun `it should support algebra of metric timelines`() = createTestSimulation {
         val mtA = IntTimeline()
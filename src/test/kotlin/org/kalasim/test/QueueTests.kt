@@ -8,7 +8,9 @@ import org.kalasim.ComponentState.DATA
 import org.kalasim.Priority.Companion.IMPORTANT
 import org.kalasim.analysis.InteractionEvent
 import org.kalasim.misc.createTestSimulation
+import java.util.*
 import kotlin.math.roundToInt
+import kotlin.random.Random
 import kotlin.test.assertEquals
 import kotlin.time.Duration.Companion.hours
 import kotlin.time.Duration.Companion.minutes
@@ -217,4 +219,71 @@ class QueueTests {
 
         fm.componentState shouldBe DATA
     }
+
+    @Test
+    fun `it should find queued data class components after their hash code changed`() = createTestSimulation {
+        data class Ticket(var seat: Int) : Component(process = Component::none)
+
+        val queue = ComponentQueue<Ticket>()
+
+        val tickets = List(3) { Ticket(1) }
+        tickets.forEach { queue.add(it) }
+
+        // equal components are still distinct queue members
+        tickets.first().seat = 42
+        tickets.forEach { queue.contains(it) shouldBe true }
+
+        queue.remove(tickets.first()) shouldBe tickets.first()
+        queue.contains(tickets.first()) shouldBe false
+
+        queue.poll() shouldBe tickets[1]
+        queue.poll() shouldBe tickets[2]
+    }
+
+    @Test
+    fun `it should maintain the same order as a java priority queue`() = createTestSimulation(enableComponentLogger = false) {
+        var referenceComparisons = 0
+        var indexedComparisons = 0
+
+        val reference = PriorityQueue<CQElement<Int>> { o1, o2 ->
+            referenceComparisons++
+            PriorityFCFSQueueComparator<Int>().compare(o1, o2)
+        }
+        val indexed = IndexedPriorityQueue<Int> { o1, o2 ->
+            indexedComparisons++
+            PriorityFCFSQueueComparator<Int>().compare(o1, o2)
+        }
+
+        val random = Random(1)
+
+        repeat(5000) { step ->
+            when(random.nextInt(4)) {
+                0, 1 -> {
+                    val element = CQElement(random.nextInt(50), now + random.nextInt(5).minutes, Priority(random.nextInt(-1, 2)))
+                    reference.add(element)
+                    indexed.add(element)
+                }
+
+                2 -> indexed.poll() shouldBe reference.poll()
+
+                else -> {
+                    val component = random.nextInt(50)
+                    val element = reference.firstOrNull { it.component == component }
+
+                    indexed.elementOf(component) shouldBe element
+                    indexed.containsComponent(component) shouldBe (element != null)
+
+                    if(element != null) {
+                        reference.remove(element)
+                        indexed.remove(element) shouldBe true
+                    }
+                }
+            }
+
+            if(step % 100 == 0) indexed.toList() shouldBe reference.toList()
+        }
+
+        indexed.sortedSequence().toList() shouldBe generateSequence { reference.poll() }.toList()
+        indexedComparisons shouldBe referenceComparisons
+    }
 }
@@ -111,6 +111,48 @@ class RegularHonorPolicyTest {
     }
 
     @Test
+    fun `it should honor equal weights in order of arrival when using a weighted FCFS`() =
+        createTestSimulation(enableComponentLogger = false) {
+            // with alpha=0 all requests are weighted equally
+            val clerks = Resource(capacity = 7, honorPolicy = RequestHonorPolicy.WeightedFCFS(0))
+
+            val honored = mutableListOf<String>()
+
+            class Client(name: String, val arrival: Int, val quantity: Int, val patience: Duration? = null) :
+                Component(name) {
+                override fun process() = sequence {
+                    hold(arrival.minutes)
+                    request(clerks, quantity = quantity, failDelay = patience)
+                    if(failed) return@sequence
+
+                    honored += name
+                    hold(1.days)
+                }
+            }
+
+            object : Component("manager") {
+                override fun process() = sequence {
+                    request(clerks, quantity = 7)
+                    hold(20.minutes)
+
+                    repeat(6) {
+                        release(clerks, quantity = 1)
+                        hold(1.minutes)
+                    }
+                }
+            }
+
+            // a blocked large request, and an impatient client leaving the queue before being honored
+            Client("a", 1, 7)
+            Client("b", 2, 1, patience = 5.minutes)
+            listOf("c", "d", "e", "f", "g", "h").forEachIndexed { index, name -> Client(name, 3 + index, 1) }
+
+            run()
+
+            honored shouldBe listOf("c", "d", "e", "f", "g", "h", "a")
+        }
+
+    @Test
 
 
     // NOTE: This test will inevetiably fail, if more numbers were samples in the test-sim than when fixating the result
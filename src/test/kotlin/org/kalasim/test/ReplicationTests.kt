@@ -0,0 +1,149 @@
+package org.kalasim.test
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.comparables.shouldBeLessThan
+import io.kotest.matchers.doubles.plusOrMinus
+import io.kotest.matchers.shouldBe
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
+import org.junit.jupiter.api.Test
+import org.kalasim.*
+import org.kalasim.analysis.ReplicationStatistics
+import org.kalasim.misc.merge
+import kotlin.time.Duration.Companion.hours
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.minutes
+
+class ReplicationTests {
+
+    private fun ReplicationScope.simulateBank(duration: Duration = 10.hours) = createSimulation {
+        val clerks = dependency { Resource("clerks", capacity = 2) }
+
+        ComponentGenerator(iat = exponential(1.minutes)) {
+            object : Component("customer") {
+                override fun process() = sequence {
+                    request(clerks) { hold(exponential(1.5.minutes)()) }
+                }
+            }
+        }
+
+        run(duration)
+
+        // entities must resolve the environment of their own replication
+        get<Environment>() shouldBe this
+    }.get<Resource>().statistics.requesters.lengthOfStayStats
+
+
+    @Test
+    fun `it should replicate simulations in parallel like sequential runs`() {
+        val parallel = replicate(12, parallelism = 4) { simulateBank() }
+        val sequential = replicate(12, parallelism = 1) { simulateBank() }
+
+        parallel.map { it.seed } shouldBe List(12) { Defaults.DEFAULT_SEED + it }
+        parallel.map { it.result.mean } shouldBe sequential.map { it.result.mean }
+
+        // seeds should result in different trajectories
+        parallel.map { it.result.mean }.distinct().size shouldBe 12
+
+        parallel.map { it.result }.merge().n shouldBe parallel.sumOf { it.result.n }
+        parallel.toDataFrame().rowsCount() shouldBe 12
+    }
+
+    @Test
+    fun `it should flatten replication results into data-frame columns`() {
+        data class Kpis(val served: Int, val meanWait: Double)
+
+        val replications = replicate(4) { Kpis(seed, seed / 2.0) }
+
+        with(replications.toDataFrame()) {
+            columnNames() shouldBe listOf("replication", "seed", "served", "meanWait")
+            this["replication"].toList() shouldBe List(4) { it }
+            this["served"].toList() shouldBe replications.map { it.seed }
+            this["meanWait"].toList() shouldBe replications.map { it.seed / 2.0 }
+        }
+
+        replicate(3) { seed * 2 }.toDataFrame().columnNames() shouldBe listOf("replication", "seed", "value")
+    }
+
+    @Test
+    fun `it should propagate errors of replications`() {
+        shouldThrow<IllegalArgumentException> {
+            replicate(3, seeds = listOf(1, 2, 3)) {
+                require(seed != 2) { "bad seed" }
+                seed
+            }
+        }
+    }
+
+    @Test
+    fun `it should not leave replications running after convergence`() {
+        val running = AtomicInteger()
+
+        replicateUntilConverged(
+            relativeHalfWidth = 0.5,
+            kpis = listOf("kpi"),
+            minReplications = 2,
+            parallelism = 4,
+        ) {
+            running.incrementAndGet()
+
+            // busy replications, which do not react to interruption
+            val until = System.nanoTime() + (index % 4) * 50_000_000L
+            while(System.nanoTime() < until) Thread.onSpinWait()
+
+            record("kpi", 1.0 + index % 2 * 0.01)
+            running.decrementAndGet()
+        }
+
+        running.get() shouldBe 0
+    }
+
+    @Test
+    fun `it should stop replicating once KPIs are sufficiently precise`() {
+        val kpi = "clerks.lengthOfStay"
+
+        fun replicate(parallelism: Int) = replicateUntilConverged(
+            relativeHalfWidth = 0.2,
+            kpis = listOf(kpi),
+            maxReplications = 500,
+            parallelism = parallelism,
+        ) {
+            record(kpi, simulateBank(2.hours).mean)
+        }
+
+        val statistics = replicate(parallelism = 4)
+
+        statistics.replications shouldBeLessThan 500L
+        statistics[kpi].relativeHalfWidth shouldBeLessThan 0.2
+        statistics[kpi].n shouldBe statistics.replications
+
+        // the outcome must not depend on the scheduling of replications
+        replicate(parallelism = 1).toString() shouldBe statistics.toString()
+    }
+
+    @Test
+    fun `it should aggregate replication statistics in constant memory`() {
+        val random = Random(1)
+        val values = List(10_000) { random.nextGaussian() * 3 + 10 }
+
+        val statistics = ReplicationStatistics(quantiles = listOf(0.1, 0.5, 0.9))
+        values.forEach { statistics.add(mapOf("kpi" to it, "undefined" to Double.NaN)) }
+
+        val reference = DescriptiveStatistics(values.toDoubleArray())
+
+        with(statistics["kpi"]) {
+            n shouldBe 10_000L
+            mean shouldBe (reference.mean plusOrMinus 1E-10)
+            variance shouldBe (reference.variance plusOrMinus 1E-8)
+            min shouldBe reference.min
+            max shouldBe reference.max
+
+            quantile(0.1) shouldBe (reference.getPercentile(10.0) plusOrMinus 0.1)
+            quantile(0.5) shouldBe (reference.getPercentile(50.0) plusOrMinus 0.1)
+            quantile(0.9) shouldBe (reference.getPercentile(90.0) plusOrMinus 0.1)
+        }
+
+        statistics.kpis.keys shouldBe setOf("kpi")
+    }
+}